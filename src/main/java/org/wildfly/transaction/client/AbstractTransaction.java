@@ -22,6 +22,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.transaction.Status;
@@ -31,6 +32,7 @@ import javax.transaction.Transaction;
 
 import org.wildfly.common.Assert;
 import org.wildfly.transaction.TransactionPermission;
+import org.wildfly.transaction.client._private.AsyncCompletion;
 
 /**
  * A managed transaction.
@@ -40,7 +42,6 @@ import org.wildfly.transaction.TransactionPermission;
 public abstract class AbstractTransaction implements Transaction {
     private static final TransactionPermission ASSOCIATION_LISTENER_PERMISSION = TransactionPermission.forName("registerAssociationListener");
 
-    private final Object outflowLock = new Object();
     private final long start = System.nanoTime();
     final Set<AssociationListener> associationListeners = new CopyOnWriteArraySet<>();
 
@@ -69,6 +70,39 @@ public abstract class AbstractTransaction implements Transaction {
 
     abstract void verifyAssociation();
 
+    // as suspend(), but the caller guarantees that this transaction is associated with the current thread
+    void suspendUnverified() throws SystemException {
+        suspend();
+    }
+
+    // as resume(), but the caller guarantees that this transaction is not associated with any thread
+    void resumeUnverified() throws SystemException {
+        resume();
+    }
+
+    /**
+     * Commit this transaction without blocking the caller.  The transaction is identified by this object rather than
+     * by the calling thread, so it should not be associated with any thread (for example, it may have been suspended).
+     * The returned stage completes exceptionally with the exception that {@link #commit()} would have thrown if the
+     * commit fails.
+     *
+     * @return the stage which completes once the transaction is committed (not {@code null})
+     */
+    public CompletionStage<Void> commitAsync() {
+        return AsyncCompletion.run(this::commit, AsyncCompletion.getExecutor());
+    }
+
+    /**
+     * Roll back this transaction without blocking the caller.  As with {@link #commitAsync()}, the transaction should
+     * not be associated with any thread.  The returned stage completes exceptionally with the exception that
+     * {@link #rollback()} would have thrown if the rollback fails.
+     *
+     * @return the stage which completes once the transaction is rolled back (not {@code null})
+     */
+    public CompletionStage<Void> rollbackAsync() {
+        return AsyncCompletion.run(this::rollback, AsyncCompletion.getExecutor());
+    }
+
     /**
      * Get the transaction timeout that was in force when the transaction began.
      *
@@ -87,6 +121,17 @@ public abstract class AbstractTransaction implements Transaction {
         return transactionTimeout - (int) min((max(elapsed, 0L) + 999_999_999L) / 1_000_000_000L, transactionTimeout);
     }
 
+    /**
+     * Determine whether the timeout of this transaction has elapsed.  Unlike {@link #getEstimatedRemainingTime()}, which
+     * rounds the elapsed time up to whole seconds, this compares the exact elapsed time to the timeout.
+     *
+     * @return {@code true} if the transaction has a timeout which has elapsed, {@code false} otherwise
+     */
+    boolean isTimeoutElapsed() {
+        final int transactionTimeout = getTransactionTimeout();
+        return transactionTimeout > 0 && System.nanoTime() - start >= transactionTimeout * 1_000_000_000L;
+    }
+
     /**
      * Get a provider-specific interface from this transaction.
      *
@@ -113,8 +158,4 @@ public abstract class AbstractTransaction implements Transaction {
 
         associationListeners.add(associationListener);
     }
-
-    Object getOutflowLock() {
-        return outflowLock;
-    }
 }
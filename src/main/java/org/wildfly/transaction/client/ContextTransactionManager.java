@@ -39,17 +39,17 @@ import org.wildfly.transaction.client._private.Log;
 public final class ContextTransactionManager implements TransactionManager {
     static final ContextTransactionManager INSTANCE = new ContextTransactionManager();
 
-    final ThreadLocal<State> stateRef = ThreadLocal.withInitial(State::new);
+    final ThreadStateStore<State> stateRef = new ThreadStateStore<>(State::new, State::isIdle);
 
     private ContextTransactionManager() {
     }
 
     public void begin() throws NotSupportedException, SystemException {
-        final State state = stateRef.get();
-        if (state.transaction != null) {
+        final State state = stateRef.peek();
+        if (state != null && state.transaction != null) {
             throw Log.log.nestedNotSupported();
         }
-        resume(LocalTransactionContext.getCurrent().beginTransaction(state.timeout));
+        resume(LocalTransactionContext.getCurrent().beginTransaction(state == null ? 0 : state.timeout));
     }
 
     public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, IllegalStateException, SystemException {
@@ -60,7 +60,8 @@ public final class ContextTransactionManager implements TransactionManager {
             }
             state.transaction.commit();
         } finally {
-            state.transaction = null;
+            state.clearTransaction();
+            stateRef.release(state);
         }
     }
 
@@ -72,40 +73,60 @@ public final class ContextTransactionManager implements TransactionManager {
             }
             state.transaction.rollback();
         } finally {
-            state.transaction = null;
+            state.clearTransaction();
+            stateRef.release(state);
         }
     }
 
     public void setRollbackOnly() throws IllegalStateException, SystemException {
-        final State state = stateRef.get();
-        if (state.transaction == null) {
+        final State state = stateRef.peek();
+        if (state == null || state.transaction == null) {
             throw Log.log.noTransaction();
         }
         state.transaction.setRollbackOnly();
     }
 
     public int getStatus() throws SystemException {
-        final State state = stateRef.get();
+        final State state = stateRef.peek();
         return state == null || state.transaction == null ? Status.STATUS_NO_TRANSACTION : state.transaction.getStatus();
     }
 
     public AbstractTransaction getTransaction() {
-        final AbstractTransaction transaction = stateRef.get().transaction;
-        if (transaction != null) transaction.verifyAssociation();
+        final State state = stateRef.peek();
+        if (state == null) {
+            return null;
+        }
+        final AbstractTransaction transaction = state.transaction;
+        // only consult the provider once per association
+        if (transaction != null && ! state.verified) {
+            transaction.verifyAssociation();
+            state.verified = true;
+        }
         return transaction;
     }
 
+    AbstractTransaction peekTransaction() {
+        final State state = stateRef.peek();
+        return state == null ? null : state.transaction;
+    }
+
     public void setTransactionTimeout(final int timeout) {
         Assert.checkMinimumParameter("timeout", 0, timeout);
-        stateRef.get().timeout = timeout;
+        final State state = stateRef.get();
+        state.timeout = timeout;
+        stateRef.release(state);
     }
 
     int getTransactionTimeout() {
-        return stateRef.get().timeout;
+        final State state = stateRef.peek();
+        return state == null ? 0 : state.timeout;
     }
 
     public AbstractTransaction suspend() throws SystemException {
-        final State state = stateRef.get();
+        final State state = stateRef.peek();
+        if (state == null) {
+            return null;
+        }
         AbstractTransaction transaction = state.transaction;
         if (transaction == null) {
             return null;
@@ -114,7 +135,8 @@ public final class ContextTransactionManager implements TransactionManager {
             transaction.suspend();
             return transaction;
         } finally {
-            state.transaction = null;
+            state.clearTransaction();
+            stateRef.release(state);
         }
     }
 
@@ -126,10 +148,91 @@ public final class ContextTransactionManager implements TransactionManager {
     }
 
     void resume(final AbstractTransaction transaction) throws IllegalStateException, SystemException {
+        if (transaction == null) {
+            // nothing to associate
+            final State state = stateRef.peek();
+            if (state != null && state.transaction != null) throw Log.log.alreadyAssociated();
+            return;
+        }
         final State state = stateRef.get();
         if (state.transaction != null) throw Log.log.alreadyAssociated();
-        if (transaction != null) transaction.resume();
-        state.transaction = transaction;
+        try {
+            transaction.resume();
+        } catch (Throwable t) {
+            stateRef.release(state);
+            throw t;
+        }
+        // resume() has already checked the provider's association
+        state.setTransaction(transaction);
+    }
+
+    /**
+     * Capture the transaction association of the current thread, so that it can be restored on another thread.  The
+     * association of the current thread is not changed, and the transaction provider is not consulted.
+     * <p>
+     * The transaction thus remains associated with the current thread while it is restored on another, so the caller
+     * must ensure that only one of the threads works in the transaction at a time; typically the current thread waits
+     * for the task it hands off, or suspends the transaction itself before the task is run.
+     *
+     * @return the snapshot (not {@code null})
+     */
+    public TransactionSnapshot captureSnapshot() {
+        final State state = stateRef.peek();
+        return state == null || state.isIdle() ? TransactionSnapshot.EMPTY : new TransactionSnapshot(state.transaction, state.timeout);
+    }
+
+    TransactionSnapshot.Restoration restore(final AbstractTransaction transaction, final int timeout) throws SystemException {
+        final State state = stateRef.get();
+        final AbstractTransaction previous = state.transaction;
+        final int previousTimeout = state.timeout;
+        if (previous != transaction) {
+            if (previous != null) {
+                // if this fails, the previous association is left in place
+                previous.suspend();
+                state.clearTransaction();
+            }
+            if (transaction != null) {
+                try {
+                    // the snapshot came from a verified association, so the provider is not asked to check it again
+                    transaction.resumeUnverified();
+                } catch (Throwable t) {
+                    if (previous != null) try {
+                        previous.resume();
+                        state.setTransaction(previous);
+                    } catch (Throwable t2) {
+                        t.addSuppressed(t2);
+                    }
+                    stateRef.release(state);
+                    throw t;
+                }
+                state.setTransaction(transaction);
+            }
+        }
+        state.timeout = timeout;
+        return () -> reinstate(transaction, previous, previousTimeout);
+    }
+
+    private void reinstate(final AbstractTransaction transaction, final AbstractTransaction previous, final int previousTimeout) throws SystemException {
+        final State state = stateRef.get();
+        try {
+            if (previous != transaction) {
+                // only undo our own association; the task may have completed or suspended the transaction itself
+                if (transaction != null && state.transaction == transaction) {
+                    try {
+                        transaction.suspendUnverified();
+                    } finally {
+                        state.clearTransaction();
+                    }
+                }
+                if (previous != null && state.transaction == null) {
+                    previous.resume();
+                    state.setTransaction(previous);
+                }
+            }
+        } finally {
+            state.timeout = previousTimeout;
+            stateRef.release(state);
+        }
     }
 
     /**
@@ -141,12 +244,27 @@ public final class ContextTransactionManager implements TransactionManager {
         return INSTANCE;
     }
 
-    ThreadLocal<State> getStateRef() {
+    ThreadStateStore<State> getStateRef() {
         return stateRef;
     }
 
     static final class State {
         AbstractTransaction transaction;
         int timeout;
+        boolean verified;
+
+        void setTransaction(final AbstractTransaction transaction) {
+            this.transaction = transaction;
+            verified = true;
+        }
+
+        void clearTransaction() {
+            transaction = null;
+            verified = false;
+        }
+
+        boolean isIdle() {
+            return transaction == null && timeout == 0;
+        }
     }
 }
@@ -41,20 +41,24 @@ public final class ContextTransactionSynchronizationRegistry implements Transact
     }
 
     public Object getTransactionKey() {
-        final AbstractTransaction transaction = ContextTransactionManager.getInstance().getStateRef().get().transaction;
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
         return transaction == null ? null : transaction.getKey();
     }
 
     public int getTransactionStatus() {
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
+        if (transaction == null) {
+            return Status.STATUS_NO_TRANSACTION;
+        }
         try {
-            return ContextTransactionManager.getInstance().getStatus();
+            return transaction.getStatus();
         } catch (SystemException e) {
             return Status.STATUS_UNKNOWN;
         }
     }
 
     public boolean getRollbackOnly() throws IllegalStateException {
-        final AbstractTransaction transaction = ContextTransactionManager.getInstance().getStateRef().get().transaction;
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
         if (transaction == null) {
             throw Log.log.noTransaction();
         }
@@ -70,7 +74,7 @@ public final class ContextTransactionSynchronizationRegistry implements Transact
     }
 
     public void registerInterposedSynchronization(final Synchronization sync) throws IllegalStateException {
-        final AbstractTransaction transaction = ContextTransactionManager.getInstance().getStateRef().get().transaction;
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
         if (transaction == null) {
             throw Log.log.noTransaction();
         }
@@ -78,7 +82,7 @@ public final class ContextTransactionSynchronizationRegistry implements Transact
     }
 
     public Object getResource(final Object key) throws IllegalStateException {
-        final AbstractTransaction transaction = ContextTransactionManager.getInstance().getStateRef().get().transaction;
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
         if (transaction == null) {
             throw Log.log.noTransaction();
         }
@@ -86,7 +90,7 @@ public final class ContextTransactionSynchronizationRegistry implements Transact
     }
 
     public void putResource(final Object key, final Object value) throws IllegalStateException {
-        final AbstractTransaction transaction = ContextTransactionManager.getInstance().getStateRef().get().transaction;
+        final AbstractTransaction transaction = ContextTransactionManager.getInstance().peekTransaction();
         if (transaction == null) {
             throw Log.log.noTransaction();
         }
@@ -18,6 +18,8 @@
 
 package org.wildfly.transaction.client;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.InvalidTransactionException;
@@ -27,6 +29,7 @@ import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import org.wildfly.common.Assert;
 import org.wildfly.transaction.client._private.Log;
@@ -37,8 +40,11 @@ import org.wildfly.transaction.client._private.Log;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class LocalTransaction extends AbstractTransaction {
+    private static final AtomicReferenceFieldUpdater<LocalTransaction, XAOutflowedResources> outflowedResourcesUpdater = AtomicReferenceFieldUpdater.newUpdater(LocalTransaction.class, XAOutflowedResources.class, "outflowedResources");
+
     private final LocalTransactionContext owner;
     private final Transaction transaction;
+    private volatile XAOutflowedResources outflowedResources;
 
     LocalTransaction(final LocalTransactionContext owner, final Transaction transaction) {
         super();
@@ -74,6 +80,10 @@ public final class LocalTransaction extends AbstractTransaction {
 
     public void setRollbackOnly() throws IllegalStateException, SystemException {
         transaction.setRollbackOnly();
+        final XAOutflowedResources outflowedResources = this.outflowedResources;
+        if (outflowedResources != null) {
+            outflowedResources.rollbackOnly();
+        }
     }
 
     public int getStatus() throws SystemException {
@@ -108,6 +118,30 @@ public final class LocalTransaction extends AbstractTransaction {
         return owner.getProvider().getNameFromXid(owner.getProvider().getXid(transaction));
     }
 
+    XAOutflowedResources getOutflowedResources() {
+        return outflowedResources;
+    }
+
+    boolean compareAndSetOutflowedResources(final XAOutflowedResources expect, final XAOutflowedResources update) {
+        return outflowedResourcesUpdater.compareAndSet(this, expect, update);
+    }
+
+    Xid getXid() {
+        return owner.getProvider().getXid(transaction);
+    }
+
+    void registerOutflow() {
+        owner.getProvider().registerOutflow(transaction);
+    }
+
+    LocalTransactionContext getOwner() {
+        return owner;
+    }
+
+    boolean isOnlyResource(final XAResource resource) {
+        return owner.getProvider().isOnlyResource(transaction, resource);
+    }
+
     void registerInterposedSynchronization(final Synchronization sync) throws IllegalStateException {
         Assert.checkNotNullParam("sync", sync);
         owner.getProvider().registerInterposedSynchronization(transaction, sync);
@@ -130,13 +164,7 @@ public final class LocalTransaction extends AbstractTransaction {
     }
 
     void suspend() throws SystemException {
-        for (AssociationListener associationListener : associationListeners) {
-            try {
-                associationListener.associationChanged(this, false);
-            } catch (Throwable t) {
-                Log.log.tracef(t, "An association listener %s threw an exception on transaction %s", associationListener, this);
-            }
-        }
+        notifyAssociationListeners(false);
         TransactionManager transactionManager = owner.getProvider().getTransactionManager();
         if (! transaction.equals(transactionManager.getTransaction())) {
             throw Log.log.invalidTxnState();
@@ -159,9 +187,31 @@ public final class LocalTransaction extends AbstractTransaction {
         if (! transaction.equals(transactionManagerTransaction)) {
             throw Log.log.unexpectedProviderTransactionMismatch(transaction, transactionManagerTransaction);
         }
+        notifyAssociationListeners(true);
+    }
+
+    void suspendUnverified() throws SystemException {
+        notifyAssociationListeners(false);
+        final Transaction transactionManagerTransaction = owner.getProvider().getTransactionManager().suspend();
+        if (! transaction.equals(transactionManagerTransaction)) {
+            throw Log.log.unexpectedProviderTransactionMismatch(transaction, transactionManagerTransaction);
+        }
+    }
+
+    void resumeUnverified() throws SystemException {
+        try {
+            owner.getProvider().getTransactionManager().resume(transaction);
+        } catch (InvalidTransactionException e) {
+            // should be impossible
+            throw Log.log.invalidTxnState();
+        }
+        notifyAssociationListeners(true);
+    }
+
+    private void notifyAssociationListeners(final boolean associated) {
         for (AssociationListener associationListener : associationListeners) {
             try {
-                associationListener.associationChanged(this, true);
+                associationListener.associationChanged(this, associated);
             } catch (Throwable t) {
                 Log.log.tracef(t, "An association listener %s threw an exception on transaction %s", associationListener, this);
             }
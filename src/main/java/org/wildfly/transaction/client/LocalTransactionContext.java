@@ -113,7 +113,10 @@ public final class LocalTransactionContext implements Contextual<LocalTransactio
         if (newTransaction == null) {
             throw Log.log.providerCreatedNullTransaction();
         }
-        return new LocalTransaction(this, newTransaction);
+        final LocalTransaction transaction = new LocalTransaction(this, newTransaction);
+        // the transaction is new, so there is no race to attach it
+        provider.putResource(newTransaction, LOCAL_TXN_KEY, transaction);
+        return transaction;
     }
 
     /**
@@ -133,6 +136,24 @@ public final class LocalTransactionContext implements Contextual<LocalTransactio
         return result.withTransaction(getOrAttach(result.getTransaction(), xid));
     }
 
+    /**
+     * Attempt to find or import a transaction.  If {@code doNotImport} is {@code true}, only an existing transaction is
+     * returned.
+     *
+     * @param xid the XID of the transaction to find or import (must not be {@code null})
+     * @param timeout the transaction timeout to use, if new
+     * @param doNotImport {@code true} to only find an existing transaction, {@code false} to import it if needed
+     * @return the transaction import result, or {@code null} if {@code doNotImport} is set and the transaction is not known
+     * @throws XAException if a problem occurred while importing the transaction
+     */
+    public ImportResult<LocalTransaction> findOrImportTransaction(Xid xid, int timeout, boolean doNotImport) throws XAException {
+        Assert.checkNotNullParam("xid", xid);
+        Assert.checkMinimumParameter("timeout", 0, timeout);
+        XAImporter xaImporter = provider.getXAImporter();
+        final ImportResult<?> result = xaImporter.findOrImportTransaction(xid, timeout, doNotImport);
+        return result == null ? null : result.withTransaction(getOrAttach(result.getTransaction(), xid));
+    }
+
     /**
      * Attempt to import a provider's current transaction as a local transaction.
      *
@@ -141,15 +162,15 @@ public final class LocalTransactionContext implements Contextual<LocalTransactio
      * @throws NotSupportedException if the thread is already associated with a transaction
      */
     public boolean importProviderTransaction() throws SystemException, NotSupportedException {
-        final ContextTransactionManager.State state = ContextTransactionManager.INSTANCE.getStateRef().get();
-        if (state.transaction != null) {
+        final ContextTransactionManager.State state = ContextTransactionManager.INSTANCE.getStateRef().peek();
+        if (state != null && state.transaction != null) {
             throw Log.log.nestedNotSupported();
         }
         final Transaction transaction = provider.getTransactionManager().getTransaction();
         if (transaction == null) {
             return false;
         }
-        state.transaction = getOrAttach(transaction, null);
+        ContextTransactionManager.INSTANCE.getStateRef().get().setTransaction(getOrAttach(transaction, null));
         return true;
     }
 
@@ -0,0 +1,399 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.xa.Xid;
+
+import org.wildfly.transaction.client._private.Log;
+
+/**
+ * An append-only, memory-mapped journal of the peers that each local transaction was outflowed to.  Entries are
+ * appended when a transaction is first outflowed to a location, and retired when the transaction completes or when
+ * recovery settles the branch at the peer; the file is rewritten with only the outstanding entries once enough entries
+ * have been retired.  On startup, the outstanding entries identify exactly those peers which may hold in-doubt
+ * branches.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class OutflowJournal implements Closeable {
+    private static final int MAGIC = 0x5746544a; // "WFTJ"
+    private static final int HEADER_SIZE = 4;
+    private static final int MIN_SIZE = 1 << 16;
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    // a zero type byte marks the end of the journal
+    private static final byte REC_OUTFLOW = 1;
+    private static final byte REC_COMPLETE = 2;
+    private static final byte REC_RESOLVE = 3;
+
+    private final Path path;
+    // outstanding outflows, keyed by branch-less XID
+    private final Map<SimpleXid, List<Entry>> live = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int retired;
+
+    private OutflowJournal(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Open the journal at the given path, replaying and compacting any existing content.
+     *
+     * @param path the journal file path
+     * @return the open journal
+     * @throws IOException if the journal could not be read or written
+     */
+    static OutflowJournal open(final Path path) throws IOException {
+        final OutflowJournal journal = new OutflowJournal(path);
+        if (Files.exists(path)) {
+            journal.replay();
+        }
+        journal.compact();
+        return journal;
+    }
+
+    private void replay() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Invalid outflow journal " + path);
+            }
+            try {
+                for (;;) {
+                    final byte type = buffer.get();
+                    if (type == REC_OUTFLOW) {
+                        final SimpleXid xid = readGtid(buffer);
+                        final String location = readString(buffer);
+                        final String parentName = readString(buffer);
+                        try {
+                            live.computeIfAbsent(xid, x -> new ArrayList<>(1)).add(new Entry(new URI(location), parentName, true));
+                        } catch (URISyntaxException e) {
+                            throw new IOException(e);
+                        }
+                    } else if (type == REC_COMPLETE) {
+                        live.remove(readGtid(buffer));
+                    } else if (type == REC_RESOLVE) {
+                        final SimpleXid xid = readGtid(buffer);
+                        final String location = readString(buffer);
+                        final List<Entry> entries = live.get(xid);
+                        if (entries != null) {
+                            entries.removeIf(entry -> entry.location.toString().equals(location));
+                            if (entries.isEmpty()) live.remove(xid);
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            } catch (BufferUnderflowException ignored) {
+                // a record was partially written; everything before it is intact
+            }
+        }
+    }
+
+    /**
+     * Record that the given transaction was outflowed to the given location.
+     *
+     * @param xid the transaction XID
+     * @param location the peer location
+     * @param parentName the parent name used for the outflow
+     */
+    synchronized void outflow(final Xid xid, final URI location, final String parentName) {
+        final SimpleXid gtid = SimpleXid.of(xid).withoutBranch();
+        live.computeIfAbsent(gtid, x -> new ArrayList<>(1)).add(new Entry(location, parentName, false));
+        if (channel == null) return;
+        try {
+            final byte[] locationBytes = location.toString().getBytes(StandardCharsets.UTF_8);
+            final byte[] parentNameBytes = parentName == null ? null : parentName.getBytes(StandardCharsets.UTF_8);
+            final byte[] gtidBytes = gtid.getGlobalTransactionId();
+            final MappedByteBuffer buffer = reserve(1 + 5 + gtidBytes.length + 2 + locationBytes.length + 2 + (parentNameBytes == null ? 0 : parentNameBytes.length));
+            final int start = buffer.position();
+            // write the body first so a crash mid-record leaves an end marker in place
+            buffer.position(start + 1);
+            writeGtid(buffer, gtid.getFormatId(), gtidBytes);
+            writeString(buffer, locationBytes);
+            writeString(buffer, parentNameBytes);
+            buffer.put(start, REC_OUTFLOW);
+            // the entry must be durable before the peer can prepare; a lost retirement only costs a needless scan
+            buffer.force();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Record that the given transaction has completed, so that its peers no longer need to be recovered.
+     *
+     * @param xid the transaction XID
+     */
+    synchronized void complete(final Xid xid) {
+        final SimpleXid gtid = SimpleXid.of(xid).withoutBranch();
+        if (live.remove(gtid) == null || channel == null) {
+            return;
+        }
+        try {
+            final byte[] gtidBytes = gtid.getGlobalTransactionId();
+            final MappedByteBuffer buffer = reserve(1 + 5 + gtidBytes.length);
+            final int start = buffer.position();
+            buffer.position(start + 1);
+            writeGtid(buffer, gtid.getFormatId(), gtidBytes);
+            buffer.put(start, REC_COMPLETE);
+            retired();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Record that the branch of the given transaction at the given location has been settled by recovery, so that the
+     * peer no longer needs to be recovered for it.
+     *
+     * @param xid the transaction XID
+     * @param location the peer location
+     */
+    synchronized void resolve(final Xid xid, final URI location) {
+        final SimpleXid gtid = SimpleXid.of(xid).withoutBranch();
+        final List<Entry> entries = live.get(gtid);
+        if (entries == null || ! entries.removeIf(entry -> entry.location.equals(location))) {
+            return;
+        }
+        if (entries.isEmpty()) {
+            live.remove(gtid);
+        }
+        writeResolve(gtid, location);
+    }
+
+    /**
+     * Retire every replayed entry for the given location, because a scan of the peer found nothing in doubt.  Entries
+     * of transactions outflowed since the journal was opened are kept, as their branches may not be prepared yet.
+     *
+     * @param location the peer location
+     */
+    synchronized void resolveReplayed(final URI location) {
+        final Iterator<Map.Entry<SimpleXid, List<Entry>>> iterator = live.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<SimpleXid, List<Entry>> mapEntry = iterator.next();
+            final List<Entry> entries = mapEntry.getValue();
+            if (entries.removeIf(entry -> entry.replayed && entry.location.equals(location))) {
+                if (entries.isEmpty()) {
+                    iterator.remove();
+                }
+                writeResolve(mapEntry.getKey(), location);
+            }
+        }
+    }
+
+    /**
+     * Determine whether any outflow to the given location has not completed.
+     *
+     * @param location the peer location
+     * @return {@code true} if an outflow is outstanding, {@code false} otherwise
+     */
+    synchronized boolean isOutstanding(final URI location) {
+        for (List<Entry> entries : live.values()) {
+            for (Entry entry : entries) {
+                if (entry.location.equals(location)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the locations of all outflows whose transactions have not completed.
+     *
+     * @return the set of locations
+     */
+    synchronized Set<URI> getOutstandingLocations() {
+        final HashSet<URI> set = new HashSet<>();
+        for (List<Entry> entries : live.values()) {
+            for (Entry entry : entries) {
+                set.add(entry.location);
+            }
+        }
+        return set;
+    }
+
+    private void writeResolve(final SimpleXid gtid, final URI location) {
+        if (channel == null) return;
+        try {
+            final byte[] locationBytes = location.toString().getBytes(StandardCharsets.UTF_8);
+            final byte[] gtidBytes = gtid.getGlobalTransactionId();
+            final MappedByteBuffer buffer = reserve(1 + 5 + gtidBytes.length + 2 + locationBytes.length);
+            final int start = buffer.position();
+            buffer.position(start + 1);
+            writeGtid(buffer, gtid.getFormatId(), gtidBytes);
+            writeString(buffer, locationBytes);
+            buffer.put(start, REC_RESOLVE);
+            retired();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void retired() throws IOException {
+        if (++ retired >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        final FileChannel channel = this.channel;
+        this.channel = null;
+        buffer = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private MappedByteBuffer reserve(final int size) throws IOException {
+        MappedByteBuffer buffer = this.buffer;
+        // always leave room for the end marker
+        if (buffer.remaining() < size + 1) {
+            final int position = buffer.position();
+            final long newSize = Math.max((long) buffer.capacity() << 1, (long) position + size + 1);
+            if (newSize > Integer.MAX_VALUE) {
+                throw new IOException("Outflow journal is full");
+            }
+            buffer = this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            buffer.position(position);
+        }
+        return buffer;
+    }
+
+    private void compact() throws IOException {
+        int size = HEADER_SIZE + 1;
+        for (Map.Entry<SimpleXid, List<Entry>> mapEntry : live.entrySet()) {
+            final int gtidSize = 1 + 5 + mapEntry.getKey().getGlobalTransactionId().length;
+            for (Entry entry : mapEntry.getValue()) {
+                size += gtidSize + 4 + entry.location.toString().length() * 3 + (entry.parentName == null ? 0 : entry.parentName.length() * 3);
+            }
+        }
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        final FileChannel newChannel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        final MappedByteBuffer newBuffer;
+        try {
+            newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_SIZE, Integer.highestOneBit(size) << 1));
+            newBuffer.putInt(MAGIC);
+            for (Map.Entry<SimpleXid, List<Entry>> mapEntry : live.entrySet()) {
+                final SimpleXid gtid = mapEntry.getKey();
+                final byte[] gtidBytes = gtid.getGlobalTransactionId();
+                for (Entry entry : mapEntry.getValue()) {
+                    newBuffer.put(REC_OUTFLOW);
+                    writeGtid(newBuffer, gtid.getFormatId(), gtidBytes);
+                    writeString(newBuffer, entry.location.toString().getBytes(StandardCharsets.UTF_8));
+                    writeString(newBuffer, entry.parentName == null ? null : entry.parentName.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            newBuffer.force();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable t) {
+            newChannel.close();
+            throw t;
+        }
+        final FileChannel oldChannel = channel;
+        channel = newChannel;
+        buffer = newBuffer;
+        retired = 0;
+        if (oldChannel != null) {
+            oldChannel.close();
+        }
+    }
+
+    private void failed(final IOException e) {
+        // stop journalling, but keep tracking outstanding outflows in memory
+        Log.log.outflowJournalFailed(path, e);
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void writeGtid(final MappedByteBuffer buffer, final int formatId, final byte[] gtid) {
+        buffer.putInt(formatId);
+        buffer.put((byte) gtid.length);
+        buffer.put(gtid);
+    }
+
+    private static SimpleXid readGtid(final MappedByteBuffer buffer) {
+        final int formatId = buffer.getInt();
+        final byte[] gtid = new byte[buffer.get() & 0xff];
+        buffer.get(gtid);
+        return new SimpleXid(formatId, gtid, SimpleXid.NO_BYTES);
+    }
+
+    private static void writeString(final MappedByteBuffer buffer, final byte[] bytes) throws IOException {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("String too long for outflow journal");
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(final MappedByteBuffer buffer) {
+        final int length = buffer.getShort();
+        if (length == -1) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        final URI location;
+        final String parentName;
+        // replayed from an earlier run, rather than outflowed since the journal was opened
+        final boolean replayed;
+
+        Entry(final URI location, final String parentName, final boolean replayed) {
+            this.location = location;
+            this.parentName = parentName;
+            this.replayed = replayed;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.wildfly.transaction.client._private.AsyncCompletion;
+import org.wildfly.transaction.client._private.Log;
+import org.wildfly.transaction.client.spi.RemoteTransactionPeer;
+import org.wildfly.transaction.client.spi.RemoteTransactionProvider;
+
+/**
+ * A recovery scan of a single peer location and parent name, shared by every subordinate resource which recovers
+ * against that peer during one recovery cycle.  Results are fetched from the peer lazily, as the resources advance
+ * through them, and are retained until the scan is superseded, so that each resource can page through all of them.
+ * The peer's scan is ended once its last page has arrived, or when the scan is abandoned.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class RemoteRecoveryScan {
+    static final int PAGE_SIZE = 256;
+    // shorter than the usual back-off between the two passes of a recovery cycle, so each pass sees fresh results
+    static final long VALIDITY = TimeUnit.SECONDS.toNanos(5);
+
+    private final URI location;
+    private final String parentName;
+    private final ArrayList<Xid> xids = new ArrayList<>();
+    private boolean started;
+    private boolean ended;
+    private volatile boolean complete;
+    private volatile boolean fetching;
+    private volatile boolean failed;
+    // when the scan last made progress; once complete, when it completed
+    private volatile long lastUsed = System.nanoTime();
+
+    RemoteRecoveryScan(final URI location, final String parentName) {
+        this.location = location;
+        this.parentName = parentName;
+    }
+
+    /**
+     * Determine whether a new recovery pass may reuse this scan.  A complete scan is valid for a short time after it
+     * completed.  A scan in progress remains valid for as long as it is being paged, because a new scan would replace
+     * the peer's cursor under it.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the scan may be reused, {@code false} if a new scan should be started
+     */
+    boolean isValid(long now) {
+        return ! failed && (fetching || now - lastUsed < VALIDITY);
+    }
+
+    /**
+     * Get the XIDs in the given range of this scan, fetching further results from the peer as needed.
+     *
+     * @param from the index of the first XID to return
+     * @param to the index after the last XID to return
+     * @return the XIDs (not {@code null}, may be shorter than requested if the scan is exhausted)
+     * @throws XAException if fetching results from the peer failed
+     */
+    Xid[] get(int from, int to) throws XAException {
+        if (failed) {
+            throw Log.log.recoveryScanFailedXa(XAException.XAER_RMFAIL, location);
+        }
+        synchronized (this) {
+            return getLocked(from, to);
+        }
+    }
+
+    /**
+     * Fail this scan, so that callers which have not yet reached the peer stop waiting on it.  The peer's scan is
+     * ended in the background, once any page which is being fetched has arrived.
+     */
+    void fail() {
+        failed = true;
+        try {
+            AsyncCompletion.getExecutor().execute(this::end);
+        } catch (RejectedExecutionException e) {
+            // the peer discards the cursor when the connection closes, or when the next scan starts
+            Log.log.tracef(e, "Failed to end abandoned recovery scan of %s", location);
+        }
+    }
+
+    /**
+     * Discard this scan because a newer one replaces it.  Resources still paging through a complete scan may carry on;
+     * a scan which is not complete is failed, because the newer scan replaces the peer's cursor.
+     */
+    void discard() {
+        if (! complete) {
+            fail();
+        }
+    }
+
+    private synchronized void end() {
+        if (started && ! ended) {
+            ended = true;
+            try {
+                getPeer().recover(XAResource.TMENDRSCAN, parentName);
+            } catch (XAException e) {
+                Log.log.recoverySuppressedException(e);
+            }
+        }
+    }
+
+    private RemoteTransactionPeer getPeer() throws XAException {
+        final RemoteTransactionProvider provider = RemoteTransactionContext.getInstancePrivate().getProvider(location);
+        if (provider == null) {
+            throw Log.log.noProviderForUriXa(XAException.XAER_RMFAIL, location);
+        }
+        return provider.getPeerHandleForXa(location);
+    }
+
+    private Xid[] getLocked(int from, int to) throws XAException {
+        final ArrayList<Xid> xids = this.xids;
+        while (! complete && xids.size() < to) {
+            if (failed) {
+                throw Log.log.recoveryScanFailedXa(XAException.XAER_RMFAIL, location);
+            }
+            final RemoteTransactionPeer peer;
+            final Xid[] page;
+            fetching = true;
+            try {
+                peer = getPeer();
+                page = peer.recover(started ? XAResource.TMNOFLAGS : XAResource.TMSTARTRSCAN, parentName);
+            } catch (XAException e) {
+                failed = true;
+                end();
+                throw e;
+            } finally {
+                fetching = false;
+                lastUsed = System.nanoTime();
+            }
+            final boolean last = started && page.length == 0;
+            started = true;
+            Collections.addAll(xids, page);
+            if (last) {
+                ended = true;
+                try {
+                    Collections.addAll(xids, peer.recover(XAResource.TMENDRSCAN, parentName));
+                } catch (XAException e) {
+                    // the pages already fetched are still good
+                    Log.log.recoverySuppressedException(e);
+                }
+                lastUsed = System.nanoTime();
+                complete = true;
+            }
+        }
+        final int size = xids.size();
+        return from >= size ? SimpleXid.NO_XIDS : xids.subList(from, Math.min(to, size)).toArray(SimpleXid.NO_XIDS);
+    }
+}
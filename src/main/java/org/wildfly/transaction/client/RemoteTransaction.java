@@ -19,6 +19,8 @@
 package org.wildfly.transaction.client;
 
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -33,6 +35,7 @@ import javax.transaction.xa.XAResource;
 
 import org.wildfly.common.Assert;
 import org.wildfly.transaction.TransactionPermission;
+import org.wildfly.transaction.client._private.AsyncCompletion;
 import org.wildfly.transaction.client._private.Log;
 import org.wildfly.transaction.client.spi.SimpleTransactionControl;
 
@@ -105,6 +108,14 @@ public final class RemoteTransaction extends AbstractTransaction {
         stateRef.get().setRollbackOnly();
     }
 
+    public CompletionStage<Void> commitAsync() {
+        return stateRef.get().commitAsync();
+    }
+
+    public CompletionStage<Void> rollbackAsync() {
+        return stateRef.get().rollbackAsync();
+    }
+
     public int getStatus() {
         return stateRef.get().getStatus();
     }
@@ -148,6 +159,10 @@ public final class RemoteTransaction extends AbstractTransaction {
 
         abstract void setRollbackOnly() throws IllegalStateException, SystemException;
 
+        abstract CompletionStage<Void> commitAsync();
+
+        abstract CompletionStage<Void> rollbackAsync();
+
         abstract int getStatus();
 
         abstract void registerSynchronization(Synchronization sync) throws RollbackException, IllegalStateException, SystemException;
@@ -178,6 +193,25 @@ public final class RemoteTransaction extends AbstractTransaction {
             stateRef.set(InactiveState.ROLLED_BACK);
         }
 
+        CompletionStage<Void> rollbackAsync() {
+            final AtomicReference<State> stateRef = RemoteTransaction.this.stateRef;
+            if (! stateRef.compareAndSet(this, InactiveState.ROLLING_BACK)) {
+                return stateRef.get().rollbackAsync();
+            }
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            control.rollbackAsync(AsyncCompletion.getExecutor()).whenComplete((ignored, t) -> {
+                if (t == null) {
+                    stateRef.set(InactiveState.ROLLED_BACK);
+                    future.complete(null);
+                } else {
+                    final Throwable cause = AsyncCompletion.unwrap(t);
+                    stateRef.set(cause instanceof SecurityException ? this : InactiveState.UNKNOWN);
+                    future.completeExceptionally(cause);
+                }
+            });
+            return future;
+        }
+
         void registerSynchronization(final Synchronization sync) throws RollbackException, IllegalStateException, SystemException {
             throw Log.log.registerSynchRemoteTransaction();
         }
@@ -212,6 +246,31 @@ public final class RemoteTransaction extends AbstractTransaction {
             stateRef.set(InactiveState.COMMITTED);
         }
 
+        CompletionStage<Void> commitAsync() {
+            final AtomicReference<State> stateRef = RemoteTransaction.this.stateRef;
+            if (! stateRef.compareAndSet(this, InactiveState.COMMITTING)) {
+                return stateRef.get().commitAsync();
+            }
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            control.commitAsync(AsyncCompletion.getExecutor()).whenComplete((ignored, t) -> {
+                if (t == null) {
+                    stateRef.set(InactiveState.COMMITTED);
+                    future.complete(null);
+                } else {
+                    final Throwable cause = AsyncCompletion.unwrap(t);
+                    if (cause instanceof SecurityException) {
+                        stateRef.set(this);
+                    } else if (cause instanceof RollbackException || cause instanceof HeuristicRollbackException) {
+                        stateRef.set(InactiveState.ROLLED_BACK);
+                    } else {
+                        stateRef.set(InactiveState.UNKNOWN);
+                    }
+                    future.completeExceptionally(cause);
+                }
+            });
+            return future;
+        }
+
         int getStatus() {
             return Status.STATUS_ACTIVE;
         }
@@ -237,6 +296,12 @@ public final class RemoteTransaction extends AbstractTransaction {
             throw Log.log.rollbackOnlyRollback();
         }
 
+        CompletionStage<Void> commitAsync() {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            rollbackAsync().whenComplete((ignored, t) -> future.completeExceptionally(t == null ? Log.log.rollbackOnlyRollback() : AsyncCompletion.unwrap(t)));
+            return future;
+        }
+
         void setRollbackOnly() {
             // no operation
         }
@@ -272,6 +337,14 @@ public final class RemoteTransaction extends AbstractTransaction {
             throw Log.log.notActive();
         }
 
+        CompletionStage<Void> commitAsync() {
+            return AsyncCompletion.failed(Log.log.notActive());
+        }
+
+        CompletionStage<Void> rollbackAsync() {
+            return AsyncCompletion.failed(Log.log.notActive());
+        }
+
         void setRollbackOnly() throws IllegalStateException, SystemException {
             if (status != Status.STATUS_ROLLING_BACK) {
                 throw Log.log.notActive();
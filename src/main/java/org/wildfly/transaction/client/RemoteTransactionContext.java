@@ -20,25 +20,40 @@ package org.wildfly.transaction.client;
 
 import static java.security.AccessController.doPrivileged;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
 
 import org.wildfly.common.Assert;
 import org.wildfly.common.context.ContextManager;
 import org.wildfly.common.context.Contextual;
+import org.wildfly.transaction.TransactionPermission;
+import org.wildfly.transaction.client._private.AsyncCompletion;
 import org.wildfly.transaction.client._private.Log;
 import org.wildfly.transaction.client.spi.RemoteTransactionProvider;
 
@@ -50,8 +65,12 @@ import org.wildfly.transaction.client.spi.RemoteTransactionProvider;
 public final class RemoteTransactionContext implements Contextual<RemoteTransactionContext> {
 
     private static final RemoteTransactionProvider[] NO_PROVIDERS = new RemoteTransactionProvider[0];
+    private static final URI[] NO_URIS = new URI[0];
 
     private final ConcurrentMap<URI, RemoteUserTransaction> userTransactions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<RecoveryKey, RemoteRecoveryScan> recoveryScans = new ConcurrentHashMap<>();
+    private final Set<URI> outflowLocations = ConcurrentHashMap.newKeySet();
+    private volatile OutflowJournal outflowJournal;
     private final List<RemoteTransactionProvider> providers;
 
     /**
@@ -146,8 +165,6 @@ public final class RemoteTransactionContext implements Contextual<RemoteTransact
         return userTransactions.computeIfAbsent(location, RemoteUserTransaction::new);
     }
 
-    private static final Object outflowKey = new Object();
-
     /**
      * Outflow the given local transaction to the given location.  The returned handle
      * must be used to confirm or forget the enlistment attempt either immediately or at some point in the future;
@@ -165,17 +182,314 @@ public final class RemoteTransactionContext implements Contextual<RemoteTransact
         Assert.checkNotNullParam("location", location);
         Assert.checkNotNullParam("transaction", transaction);
 
-        XAOutflowedResources outflowedResources = (XAOutflowedResources) transaction.getResource(outflowKey);
+        if (isLocalNode(location, transaction.getOwner())) {
+            // the transaction is already here; there is no subordinate to enlist, but the XID may still be looked up
+            transaction.registerOutflow();
+            return XAOutflowHandle.createSimple(transaction.getXid(), transaction.getEstimatedRemainingTime());
+        }
+        XAOutflowedResources outflowedResources = transaction.getOutflowedResources();
         if (outflowedResources == null) {
-            synchronized (transaction.getOutflowLock()) {
-                outflowedResources = (XAOutflowedResources) transaction.getResource(outflowKey);
-                if (outflowedResources == null) {
-                    transaction.putResource(outflowKey, outflowedResources = new XAOutflowedResources(transaction));
+            final XAOutflowedResources newResources = new XAOutflowedResources(transaction, outflowJournal);
+            if (transaction.compareAndSetOutflowedResources(null, newResources)) {
+                // one synchronization covers every outflow of the transaction; resources are enlisted on verification
+                try {
+                    transaction.registerOutflow();
+                    transaction.registerSynchronization(newResources);
+                } catch (Throwable t) {
+                    transaction.compareAndSetOutflowedResources(newResources, null);
+                    throw t;
+                }
+                newResources.register();
+                outflowedResources = newResources;
+            } else {
+                outflowedResources = transaction.getOutflowedResources();
+            }
+        }
+        outflowLocations.add(location);
+        SubordinateXAResource resource = outflowedResources.getOrCreate(location, transaction.getParentName());
+        return resource.addHandle(transaction.getXid());
+    }
+
+    /**
+     * Mark the local transaction with the given XID rollback-only, because the peer at the given location has rolled
+     * back its branch (for example because the transaction timed out there).  Nothing is done unless the transaction
+     * was outflowed to that location and has not completed.  Remote transaction providers call this when the peer
+     * notifies them of such a rollback.
+     *
+     * @param location the peer location (must not be {@code null})
+     * @param xid the transaction XID (must not be {@code null})
+     * @throws SystemException if the transaction could not be marked
+     */
+    public static void rolledBackByPeer(final URI location, final Xid xid) throws SystemException {
+        Assert.checkNotNullParam("location", location);
+        Assert.checkNotNullParam("xid", xid);
+        final XAOutflowedResources outflowedResources = XAOutflowedResources.forGtid(SimpleXid.of(xid).withoutBranch());
+        if (outflowedResources != null && outflowedResources.hasOutflowTo(location)) {
+            outflowedResources.getTransaction().setRollbackOnly();
+        }
+    }
+
+    /**
+     * Determine whether the given location is actually the local node, by comparing the peer's node name to the node
+     * name of the local transaction provider.  The peer is asked every time rather than cached, because the node
+     * answering at a location can change (for example on failover, or behind a load-balanced address).  This is only
+     * correct if peers report the same node identifier that their transaction manager uses, so that both names come
+     * from the same namespace.
+     *
+     * @param location the peer location (must not be {@code null})
+     * @param localContext the local transaction context (must not be {@code null})
+     * @return {@code true} if the location is the local node, {@code false} if it is remote or unknown
+     */
+    boolean isLocalNode(final URI location, final LocalTransactionContext localContext) {
+        final RemoteTransactionProvider provider = getProvider(location);
+        if (provider == null) {
+            return false;
+        }
+        final String peerName;
+        try {
+            peerName = provider.getPeerHandle(location).getNodeName();
+        } catch (SystemException | IllegalStateException e) {
+            return false;
+        }
+        return peerName != null && peerName.equals(localContext.getProvider().getNodeName());
+    }
+
+    /**
+     * Scan every known outflow location for transactions to recover.  The scans run concurrently on the given executor,
+     * and the scan of a peer which does not answer within the timeout is abandoned so that it does not hold up the
+     * others.  Each page of results is passed to the given handler on the calling thread as soon as it arrives, and
+     * the scans wait for the handler to keep up, so the results are never collected in full.  The same XID may be
+     * reported by more than one peer.  Locations which report nothing in doubt, and which have no outstanding
+     * journalled outflows, are forgotten.
+     *
+     * @param parentName the name of the node to recover on behalf of, or {@code null} for all
+     * @param executor the executor on which to run the scans (must not be {@code null})
+     * @param timeout the amount of time to wait for each peer
+     * @param timeUnit the time unit of the timeout (must not be {@code null})
+     * @param pageHandler the handler to pass each page of recovered XIDs to (must not be {@code null})
+     */
+    public void recoverAll(final String parentName, final Executor executor, final long timeout, final TimeUnit timeUnit, final Consumer<Xid[]> pageHandler) {
+        Assert.checkNotNullParam("executor", executor);
+        Assert.checkMinimumParameter("timeout", 0L, timeout);
+        Assert.checkNotNullParam("timeUnit", timeUnit);
+        Assert.checkNotNullParam("pageHandler", pageHandler);
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(TransactionPermission.forName("getRecoveryInterface"));
+        }
+        final URI[] locations = outflowLocations.toArray(NO_URIS);
+        final int count = locations.length;
+        // one page per peer at most is waiting for the handler
+        final BlockingQueue<RecoveredPage> pages = new ArrayBlockingQueue<>(Math.max(1, count));
+        final List<RemoteRecoveryScan> scans = new ArrayList<>(count);
+        final List<FutureTask<Void>> tasks = new ArrayList<>(count);
+        final boolean[] finished = new boolean[count];
+        int remaining = count;
+        for (int i = 0; i < count; i ++) {
+            final int index = i;
+            final RemoteRecoveryScan scan = getRecoveryScan(locations[i], parentName);
+            final FutureTask<Void> task = new FutureTask<>(() -> {
+                XAException problem = null;
+                int position = 0;
+                try {
+                    Xid[] page;
+                    do {
+                        page = scan.get(position, position + RemoteRecoveryScan.PAGE_SIZE);
+                        position += page.length;
+                        if (page.length > 0) {
+                            pages.put(new RecoveredPage(index, page, null));
+                        }
+                    } while (page.length == RemoteRecoveryScan.PAGE_SIZE);
+                } catch (XAException e) {
+                    problem = e;
+                }
+                pages.put(new RecoveredPage(index, null, problem));
+                return null;
+            });
+            scans.add(scan);
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // running it here could fill the queue before anything is taken from it
+                Log.log.recoveryScanFailed(locations[i], e);
+                finished[i] = true;
+                remaining --;
+            }
+        }
+        // the scans run concurrently, so every peer gets the same deadline
+        final long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        final boolean[] found = new boolean[count];
+        boolean timedOut = false;
+        boolean intr = false;
+        try {
+            while (remaining > 0) {
+                final RecoveredPage page;
+                try {
+                    page = pages.poll(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    intr = true;
+                    break;
+                }
+                if (page == null) {
+                    timedOut = true;
+                    break;
+                }
+                final int i = page.index;
+                if (page.xids != null) {
+                    found[i] = true;
+                    pageHandler.accept(page.xids);
+                    continue;
+                }
+                finished[i] = true;
+                remaining --;
+                if (page.problem != null) {
+                    Log.log.recoveryScanFailed(locations[i], page.problem);
+                } else if (! found[i]) {
+                    // nothing is in doubt at the peer, so later scans need not contact it again
+                    forgetIfResolved(locations[i]);
+                }
+            }
+        } finally {
+            for (int i = 0; i < count; i ++) {
+                if (! finished[i]) {
+                    if (timedOut) {
+                        Log.log.recoveryScanTimedOut(locations[i]);
+                    }
+                    // stop waiting on the peer, and do not let later passes share the abandoned scan
+                    tasks.get(i).cancel(true);
+                    evictRecoveryScan(locations[i], parentName, scans.get(i));
+                }
+            }
+            if (intr) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forgetIfResolved(final URI location) {
+        final OutflowJournal journal = outflowJournal;
+        if (journal == null) {
+            outflowLocations.remove(location);
+        } else {
+            journal.resolveReplayed(location);
+            if (! journal.isOutstanding(location)) {
+                outflowLocations.remove(location);
+            }
+        }
+    }
+
+    /**
+     * Open a journal in which the peer locations of outflowed transactions are recorded until the transactions complete.
+     * Any existing journal content is replayed first, so that the peers of transactions which did not complete before
+     * a restart are included in {@link #recoverAll(String, Executor, long, TimeUnit)}.  The journal is closed and
+     * replaced if one was already open.
+     *
+     * @param path the journal file path (must not be {@code null})
+     * @throws IOException if the journal could not be opened
+     */
+    public void openOutflowJournal(final Path path) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(TransactionPermission.forName("getRecoveryInterface"));
+        }
+        final OutflowJournal journal = OutflowJournal.open(path);
+        outflowLocations.addAll(journal.getOutstandingLocations());
+        final OutflowJournal old = outflowJournal;
+        outflowJournal = journal;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    void registerOutflowLocation(final URI location) {
+        outflowLocations.add(location);
+    }
+
+    void resolveOutflow(final Xid xid, final URI location) {
+        final OutflowJournal journal = outflowJournal;
+        if (journal != null) {
+            journal.resolve(xid, location);
+        }
+    }
+
+    /**
+     * Get the recovery scan for the given peer and parent name, starting a new one if there is no scan from the current
+     * recovery cycle.
+     *
+     * @param location the peer location
+     * @param parentName the parent name to recover on behalf of
+     * @return the shared scan (not {@code null})
+     */
+    RemoteRecoveryScan getRecoveryScan(final URI location, final String parentName) {
+        final long now = System.nanoTime();
+        // drop scans from earlier cycles so their results are not retained
+        recoveryScans.values().removeIf(scan -> {
+            if (scan.isValid(now)) {
+                return false;
+            }
+            scan.discard();
+            return true;
+        });
+        return recoveryScans.compute(new RecoveryKey(location, parentName), (key, scan) -> {
+            if (scan != null) {
+                if (scan.isValid(now)) {
+                    return scan;
+                }
+                scan.discard();
+            }
+            return new RemoteRecoveryScan(location, parentName);
+        });
+    }
+
+    /**
+     * Get the recovery scan for the given peer and parent name.  If the current recovery cycle has no scan of the peer
+     * yet, the first page of every known outflow location is fetched in the background, so that the remaining
+     * subordinate resources of the cycle find it already fetched.  The caller only ever waits on its own peer.
+     *
+     * @param location the peer location
+     * @param parentName the parent name to recover on behalf of
+     * @return the shared scan (not {@code null})
+     */
+    RemoteRecoveryScan startRecoveryScan(final URI location, final String parentName) {
+        final RemoteRecoveryScan scan = recoveryScans.get(new RecoveryKey(location, parentName));
+        if (scan == null || ! scan.isValid(System.nanoTime())) {
+            startPrefetch(location, parentName);
+            for (URI peer : outflowLocations) {
+                if (! peer.equals(location)) {
+                    startPrefetch(peer, parentName);
                 }
             }
         }
-        SubordinateXAResource resource = outflowedResources.getOrEnlist(location, transaction.getParentName());
-        return resource.addHandle(resource.getXid());
+        return getRecoveryScan(location, parentName);
+    }
+
+    private void startPrefetch(final URI location, final String parentName) {
+        final RemoteRecoveryScan scan = getRecoveryScan(location, parentName);
+        try {
+            AsyncCompletion.getExecutor().execute(() -> prefetch(location, scan));
+        } catch (RejectedExecutionException e) {
+            // the resources of the peer fetch the page themselves
+            Log.log.tracef(e, "Failed to prefetch recovery scan of %s", location);
+        }
+    }
+
+    private void prefetch(final URI location, final RemoteRecoveryScan scan) {
+        final Xid[] page;
+        try {
+            page = scan.get(0, RemoteRecoveryScan.PAGE_SIZE);
+        } catch (XAException e) {
+            Log.log.recoveryScanFailed(location, e);
+            return;
+        }
+        if (page.length == 0) {
+            // the scan is complete and empty, so nothing is in doubt at the peer
+            forgetIfResolved(location);
+        }
+    }
+
+    private void evictRecoveryScan(final URI location, final String parentName, final RemoteRecoveryScan scan) {
+        scan.fail();
+        recoveryScans.remove(new RecoveryKey(location, parentName), scan);
     }
 
     RemoteTransactionProvider getProvider(final URI location) {
@@ -186,4 +500,41 @@ public final class RemoteTransactionContext implements Contextual<RemoteTransact
         }
         return null;
     }
+
+    static final class RecoveredPage {
+        final int index;
+        // null once the scan of the location is finished
+        final Xid[] xids;
+        final XAException problem;
+
+        RecoveredPage(final int index, final Xid[] xids, final XAException problem) {
+            this.index = index;
+            this.xids = xids;
+            this.problem = problem;
+        }
+    }
+
+    static final class RecoveryKey {
+        private final URI location;
+        private final String parentName;
+        private final int hashCode;
+
+        RecoveryKey(final URI location, final String parentName) {
+            this.location = location;
+            this.parentName = parentName;
+            hashCode = location.hashCode() * 31 + Objects.hashCode(parentName);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof RecoveryKey && equals((RecoveryKey) obj);
+        }
+
+        private boolean equals(final RecoveryKey other) {
+            return this == other || other != null && hashCode == other.hashCode && location.equals(other.location) && Objects.equals(parentName, other.parentName);
+        }
+    }
 }
@@ -41,7 +41,7 @@ import org.wildfly.transaction.client.spi.SimpleTransactionControl;
 public final class RemoteUserTransaction implements UserTransaction, Serializable {
     private static final long serialVersionUID = 8612109476723652825L;
 
-    private final ThreadLocal<State> stateRef = ThreadLocal.withInitial(State::new);
+    private final ThreadStateStore<State> stateRef = new ThreadStateStore<>(State::new, State::isIdle);
     private final URI location;
 
     RemoteUserTransaction(final URI location) {
@@ -53,38 +53,53 @@ public final class RemoteUserTransaction implements UserTransaction, Serializabl
         if (transactionManager.getTransaction() != null) {
             throw Log.log.nestedNotSupported();
         }
-        final RemoteTransactionProvider provider = RemoteTransactionContext.getInstancePrivate().getProvider(location);
+        final RemoteTransactionContext remoteContext = RemoteTransactionContext.getInstancePrivate();
+        final RemoteTransactionProvider provider = remoteContext.getProvider(location);
         if (provider == null) {
             throw Log.log.noProviderForUri(location);
         }
+        final State state = stateRef.peek();
+        final int timeout = state == null ? 0 : state.timeout;
+        final LocalTransactionContext localContext = LocalTransactionContext.getCurrent();
+        if (remoteContext.isLocalNode(location, localContext)) {
+            // the location is this node, so the transaction need not go through the remote protocol at all
+            final LocalTransaction transaction = localContext.beginTransaction(timeout == 0 ? transactionManager.getTransactionTimeout() : timeout);
+            transactionManager.resume(transaction);
+            final State localState = stateRef.get();
+            localState.localTransaction = transaction;
+            return;
+        }
         final SimpleTransactionControl control = provider.getPeerHandle(location).begin(transactionManager.getTransactionTimeout());
-        final int timeout = stateRef.get().timeout;
         transactionManager.resume(new RemoteTransaction(control, location, timeout == 0 ? Integer.MAX_VALUE : timeout));
     }
 
     public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, IllegalStateException, SystemException {
         ContextTransactionManager transactionManager = ContextTransactionManager.getInstance();
-        final RemoteTransaction remoteTransaction = getMatchingTransaction();
+        final AbstractTransaction remoteTransaction = getMatchingTransaction();
         if (remoteTransaction == null) {
             throw Log.log.invalidTxnState();
-        } else {
+        } else try {
             transactionManager.commit();
+        } finally {
+            forgetLocalTransaction(remoteTransaction);
         }
     }
 
     public void rollback() throws IllegalStateException, SecurityException, SystemException {
         ContextTransactionManager transactionManager = ContextTransactionManager.getInstance();
-        final RemoteTransaction remoteTransaction = getMatchingTransaction();
+        final AbstractTransaction remoteTransaction = getMatchingTransaction();
         if (remoteTransaction == null) {
             throw Log.log.invalidTxnState();
-        } else {
+        } else try {
             transactionManager.rollback();
+        } finally {
+            forgetLocalTransaction(remoteTransaction);
         }
     }
 
     public void setRollbackOnly() throws IllegalStateException, SystemException {
         ContextTransactionManager transactionManager = ContextTransactionManager.getInstance();
-        final RemoteTransaction remoteTransaction = getMatchingTransaction();
+        final AbstractTransaction remoteTransaction = getMatchingTransaction();
         if (remoteTransaction == null) {
             throw Log.log.noTransaction();
         } else {
@@ -92,8 +107,8 @@ public final class RemoteUserTransaction implements UserTransaction, Serializabl
         }
     }
 
-    public int getStatus() {
-        final RemoteTransaction remoteTransaction = getMatchingTransaction();
+    public int getStatus() throws SystemException {
+        final AbstractTransaction remoteTransaction = getMatchingTransaction();
         return remoteTransaction == null ? Status.STATUS_NO_TRANSACTION : remoteTransaction.getStatus();
     }
 
@@ -106,8 +121,13 @@ public final class RemoteUserTransaction implements UserTransaction, Serializabl
         return location;
     }
 
-    RemoteTransaction getMatchingTransaction() {
+    AbstractTransaction getMatchingTransaction() {
         final AbstractTransaction transaction = ContextTransactionManager.getInstance().getTransaction();
+        if (transaction instanceof LocalTransaction) {
+            // a transaction begun against the local node was begun locally, by this thread
+            final State state = stateRef.peek();
+            return state != null && state.localTransaction == transaction ? transaction : null;
+        }
         if (! (transaction instanceof RemoteTransaction)) {
             return null;
         }
@@ -118,9 +138,19 @@ public final class RemoteUserTransaction implements UserTransaction, Serializabl
         return remoteTransaction;
     }
 
+    private void forgetLocalTransaction(final AbstractTransaction transaction) {
+        final State state = stateRef.peek();
+        if (state != null && state.localTransaction == transaction) {
+            state.localTransaction = null;
+            stateRef.release(state);
+        }
+    }
+
     public void setTransactionTimeout(final int seconds) throws SystemException {
         if (seconds < 0) throw Log.log.negativeTxnTimeout();
-        stateRef.get().timeout = seconds;
+        final State state = stateRef.get();
+        state.timeout = seconds;
+        stateRef.release(state);
     }
 
     Object writeReplace() {
@@ -131,5 +161,11 @@ public final class RemoteUserTransaction implements UserTransaction, Serializabl
         int status = Status.STATUS_NO_TRANSACTION;
         int timeout = 0;
         SimpleTransactionControl transactionHandle;
+        // the transaction begun locally because the location is this node
+        LocalTransaction localTransaction;
+
+        boolean isIdle() {
+            return timeout == 0 && transactionHandle == null && localTransaction == null;
+        }
     }
 }
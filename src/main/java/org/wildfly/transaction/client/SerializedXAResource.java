@@ -47,6 +47,8 @@ final class SerializedXAResource implements Serializable {
     }
 
     Object readResolve() {
+        // recovered resources identify the peers which recovery must contact
+        RemoteTransactionContext.getInstancePrivate().registerOutflowLocation(location);
         return new SubordinateXAResource(location, FL_COMMITTED | FL_CONFIRMED, parentName);
     }
 }
@@ -54,22 +54,73 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
     private int capturedTimeout;
 
     private final AtomicInteger stateRef = new AtomicInteger(0);
-
-    SubordinateXAResource(final URI location, final String parentName) {
+    private final transient XAOutflowedResources outflowedResources;
+    private volatile boolean enlisted;
+    private volatile boolean beforeCompletionDeferred;
+    // the peer branch already completed (read-only, or rolled back early), so no further completion calls are sent
+    private volatile boolean completed;
+    private final AtomicBoolean rollbackOnlySent = new AtomicBoolean();
+    private transient RemoteRecoveryScan recoveryScan;
+    private transient int recoveryPosition;
+
+    SubordinateXAResource(final URI location, final String parentName, final XAOutflowedResources outflowedResources) {
         this.location = location;
         this.parentName = parentName;
+        this.outflowedResources = outflowedResources;
     }
 
     SubordinateXAResource(final URI location, final int flags, final String parentName) {
         this.location = location;
         this.parentName = parentName;
+        outflowedResources = null;
+        enlisted = true;
         stateRef.set(flags);
     }
 
+    URI getLocation() {
+        return location;
+    }
+
+    String getParentName() {
+        return parentName;
+    }
+
+    boolean isEnlisted() {
+        return enlisted;
+    }
+
+    void setEnlisted() {
+        enlisted = true;
+    }
+
+    boolean isCommitted() {
+        return OutflowHandleManager.isSet(stateRef.get(), OutflowHandleManager.FL_COMMITTED);
+    }
+
     Xid getXid() {
         return xid;
     }
 
+    void deferBeforeCompletion() {
+        beforeCompletionDeferred = true;
+    }
+
+    /**
+     * Tell the peer, without waiting, that the transaction is going to roll back.  The hint is sent at most once.
+     */
+    void sendRollbackOnly() {
+        final Xid xid = this.xid;
+        if (xid == null || completed || ! rollbackOnlySent.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lookup(xid).setRollbackOnlyAsync();
+        } catch (XAException e) {
+            // just a hint; the rollback will reach the peer during completion
+            Log.log.rollbackOnlyHintFailed(location, e);
+        }
+    }
+
     XAOutflowHandle addHandle(Xid xid) {
         if (! OutflowHandleManager.open(stateRef)) {
             throw Log.log.invalidTxnState();
@@ -82,7 +133,8 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
             }
 
             public int getRemainingTime() {
-                return getCapturedTimeout();
+                final XAOutflowedResources outflowedResources = SubordinateXAResource.this.outflowedResources;
+                return outflowedResources == null ? getCapturedTimeout() : outflowedResources.getTransaction().getEstimatedRemainingTime();
             }
 
             public void forgetEnlistment() {
@@ -104,6 +156,11 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
             public void verifyEnlistment() throws RollbackException, SystemException {
                 if (done.compareAndSet(false, true)) {
                     OutflowHandleManager.verifyOne(stateRef);
+                    // the peer participates, so the resource must now take part in completion
+                    final XAOutflowedResources outflowedResources = SubordinateXAResource.this.outflowedResources;
+                    if (outflowedResources != null) {
+                        outflowedResources.enlist(SubordinateXAResource.this);
+                    }
                 } else {
                     throw Log.log.alreadyEnlisted();
                 }
@@ -134,34 +191,114 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
     }
 
     public void beforeCompletion(final Xid xid) throws XAException {
-        if (commit()) lookup(xid).beforeCompletion();
+        // the peer may already have completed read-only, saving the prepare round trip
+        if (commit()) completed = lookup(xid).beforeCompletionReadOnly();
     }
 
     public int prepare(final Xid xid) throws XAException {
-        return commit() ? lookup(xid).prepare() : XA_RDONLY;
+        if (! commit() || completed) {
+            return XA_RDONLY;
+        }
+        final SubordinateTransactionControl control = lookup(xid);
+        if (isExpired()) {
+            throw rollbackExpired(control);
+        }
+        if (beforeCompletionDeferred) {
+            // another resource joined after all, so the TM is doing a full two-phase commit
+            beforeCompletionDeferred = false;
+            control.beforeCompletion();
+        }
+        return control.prepare();
     }
 
     public void commit(final Xid xid, final boolean onePhase) throws XAException {
-        if (commit()) lookup(xid).commit(onePhase);
+        if (commit() && ! completed) {
+            final SubordinateTransactionControl control = lookup(xid);
+            if (onePhase && isExpired()) {
+                throw rollbackExpired(control);
+            }
+            try {
+                control.commit(onePhase);
+            } catch (XAException e) {
+                if (e.errorCode == XAException.XAER_NOTA) resolved(xid);
+                throw e;
+            }
+            resolved(xid);
+        }
     }
 
     public void rollback(final Xid xid) throws XAException {
-        if (commit()) lookup(xid).rollback();
+        if (commit() && ! completed) try {
+            lookup(xid).rollback();
+            resolved(xid);
+        } catch (XAException e) {
+            if (e.errorCode == XAException.XAER_NOTA) resolved(xid);
+            throw e;
+        }
     }
 
     public void forget(final Xid xid) throws XAException {
-        if (commit()) lookup(xid).forget();
+        if (commit() && ! completed) {
+            lookup(xid).forget();
+            resolved(xid);
+        }
+    }
+
+    private void resolved(final Xid xid) {
+        // the peer holds nothing more for the branch (heuristic outcomes are kept until forgotten)
+        RemoteTransactionContext.getInstancePrivate().resolveOutflow(xid, location);
+    }
+
+    private boolean isExpired() {
+        final XAOutflowedResources outflowedResources = this.outflowedResources;
+        if (outflowedResources == null) {
+            return false;
+        }
+        return outflowedResources.getTransaction().isTimeoutElapsed();
+    }
+
+    private XAException rollbackExpired(final SubordinateTransactionControl control) {
+        // the transaction is going to be rolled back anyway, so spare the peer a prepare whose work would be discarded;
+        // having voted rollback, this resource will not be asked to roll back, so the peer is told here
+        completed = true;
+        try {
+            control.rollbackAsync();
+        } catch (XAException e) {
+            // the peer will roll back on its own once its timeout expires
+            Log.log.earlyRollbackFailed(location, e);
+        }
+        return Log.log.transactionTimedOut(XAException.XA_RBTIMEOUT);
+    }
+
+    /**
+     * Tell the peer, without waiting, to roll back its branch, because this resource could not be enlisted and so the
+     * transaction manager will never send it the outcome.
+     *
+     * @param xid the XID of the branch
+     */
+    void rollbackUnenlisted(final Xid xid) {
+        completed = true;
+        try {
+            lookup(xid).rollbackAsync();
+        } catch (XAException e) {
+            // the peer will roll back on its own once its timeout expires
+            Log.log.unenlistedRollbackFailed(location, e);
+        }
     }
 
     private SubordinateTransactionControl lookup(final Xid xid) throws XAException {
         final RemoteTransactionProvider provider = getProvider();
+        final XAOutflowedResources outflowedResources = this.outflowedResources;
         final int configuredTimeout = this.timeout;
         int timeout;
-        if (configuredTimeout == 0) {
+        if (outflowedResources != null) {
+            // the peer should time out along with the transaction itself
+            timeout = max(1, outflowedResources.getTransaction().getEstimatedRemainingTime());
+        } else if (configuredTimeout == 0) {
             timeout = 0;
         } else {
             // the remaining timeout is equal to the configured timeout minus the time since start() was called, but no less than 1
-            timeout = (int) min(max(1L, max(0L, System.nanoTime() - startTime) - configuredTimeout * 1_000_000L), Integer.MAX_VALUE);
+            timeout = (int) max(1L, configuredTimeout - max(0L, System.nanoTime() - startTime) / 1_000_000_000L);
         }
         return provider.getPeerHandleForXa(location).lookupXid(xid, timeout);
     }
@@ -175,7 +312,29 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
     }
 
     public Xid[] recover(final int flag, final String parentName) throws XAException {
-        return getProvider().getPeerHandleForXa(location).recover(flag, parentName);
+        RemoteRecoveryScan scan = recoveryScan;
+        if ((flag & TMSTARTRSCAN) != 0) {
+            // resources for the same peer share one remote scan per recovery cycle, and every peer's first page is fetched in the background
+            recoveryScan = scan = RemoteTransactionContext.getInstancePrivate().startRecoveryScan(location, parentName);
+            recoveryPosition = 0;
+        } else if (scan == null) {
+            return SimpleXid.NO_XIDS;
+        }
+        final boolean end = (flag & TMENDRSCAN) != 0;
+        final int position = recoveryPosition;
+        final Xid[] xids;
+        try {
+            xids = scan.get(position, end ? Integer.MAX_VALUE : position + RemoteRecoveryScan.PAGE_SIZE);
+        } catch (XAException e) {
+            recoveryScan = null;
+            throw e;
+        }
+        if (end || xids.length == 0) {
+            recoveryScan = null;
+        } else {
+            recoveryPosition = position + xids.length;
+        }
+        return xids;
     }
 
     public boolean isSameRM(final XAResource xaRes) throws XAException {
@@ -205,6 +364,6 @@ final class SubordinateXAResource implements XAResource, XARecoverable, Serializ
     int getCapturedTimeout() {
         long elapsed = System.nanoTime() - startTime;
         final int capturedTimeout = this.capturedTimeout;
-        return capturedTimeout - (int) max(capturedTimeout, elapsed / 1_000_000L);
+        return capturedTimeout - (int) min(capturedTimeout, max(0L, elapsed) / 1_000_000_000L);
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client;
+
+import static java.security.AccessController.doPrivileged;
+
+import java.security.PrivilegedAction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A per-thread state holder which never allocates on read.  State is only created when it is about to be modified.
+ * In lazy mode, state which has returned to its idle value is released from the thread, so that large numbers of
+ * short-lived threads do not each retain a state object.  The mode is selected once at startup using the
+ * {@code org.wildfly.transaction.client.lazy-thread-state} system property.
+ *
+ * @param <S> the state type
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ThreadStateStore<S> {
+    static final boolean LAZY = doPrivileged((PrivilegedAction<Boolean>) () -> Boolean.valueOf(System.getProperty("org.wildfly.transaction.client.lazy-thread-state", "false"))).booleanValue();
+
+    private final ThreadLocal<S> threadLocal = new ThreadLocal<>();
+    private final Supplier<S> factory;
+    private final Predicate<S> idle;
+
+    ThreadStateStore(final Supplier<S> factory, final Predicate<S> idle) {
+        this.factory = factory;
+        this.idle = idle;
+    }
+
+    /**
+     * Get the current thread's state, if any.
+     *
+     * @return the state, or {@code null} if the thread has none
+     */
+    S peek() {
+        return threadLocal.get();
+    }
+
+    /**
+     * Get the current thread's state, creating it if necessary.  Callers which may return the state to its idle value
+     * should call {@link #release(Object)} once they are done with it.
+     *
+     * @return the state (not {@code null})
+     */
+    S get() {
+        final ThreadLocal<S> threadLocal = this.threadLocal;
+        S state = threadLocal.get();
+        if (state == null) {
+            threadLocal.set(state = factory.get());
+        }
+        return state;
+    }
+
+    /**
+     * Release the given state from the current thread if lazy mode is enabled and the state is idle.
+     *
+     * @param state the state previously returned by {@link #get()}
+     */
+    void release(final S state) {
+        if (LAZY && idle.test(state) && threadLocal.get() == state) {
+            threadLocal.remove();
+        }
+    }
+}
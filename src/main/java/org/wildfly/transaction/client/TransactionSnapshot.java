@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client;
+
+import javax.transaction.SystemException;
+
+/**
+ * A captured transaction association, which can be restored on another thread.  This is intended for executors and
+ * context propagation frameworks which hand tasks off between threads; restoring a snapshot makes fewer calls to the
+ * transaction provider than a {@link ContextTransactionManager#suspend() suspend}/{@link
+ * ContextTransactionManager#resume(javax.transaction.Transaction) resume} pair, and none at all if the transaction is
+ * already associated with the restoring thread.  Capturing a snapshot does not disassociate the transaction from the
+ * capturing thread, so only one of the two threads may work in the transaction at a time.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class TransactionSnapshot {
+    static final TransactionSnapshot EMPTY = new TransactionSnapshot(null, 0);
+
+    private final AbstractTransaction transaction;
+    private final int timeout;
+
+    TransactionSnapshot(final AbstractTransaction transaction, final int timeout) {
+        this.transaction = transaction;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the captured transaction.
+     *
+     * @return the captured transaction, or {@code null} if no transaction was associated when the snapshot was taken
+     */
+    public AbstractTransaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Associate the current thread with the captured transaction and transaction timeout.  Any other transaction
+     * associated with the current thread is suspended until the returned handle is closed.
+     *
+     * @return the handle which reinstates the previous association of the current thread when closed (not {@code null})
+     * @throws SystemException if the transaction could not be associated with the current thread
+     */
+    public Restoration restore() throws SystemException {
+        return ContextTransactionManager.INSTANCE.restore(transaction, timeout);
+    }
+
+    /**
+     * A restored transaction association.  The handle must be closed by the thread which restored it.
+     */
+    public interface Restoration extends AutoCloseable {
+        /**
+         * Disassociate the restored transaction from the current thread (unless it was already completed or
+         * suspended), and reinstate the association which was in place before the restore.
+         *
+         * @throws SystemException if the previous association could not be reinstated
+         */
+        void close() throws SystemException;
+    }
+}
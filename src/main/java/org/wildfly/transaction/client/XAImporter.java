@@ -43,6 +43,24 @@ public interface XAImporter extends XARecoverable {
     @NotNull
     ImportResult<?> findOrImportTransaction(Xid xid, int timeout) throws XAException;
 
+    /**
+     * Find or import a transaction.  If {@code doNotImport} is {@code true} and the transaction does not already
+     * exist, {@code null} is returned rather than importing it; this is useful for completion operations, which
+     * never need a new transaction to act upon.
+     *
+     * @param xid the transaction ID (must not be {@code null})
+     * @param timeout the remaining transaction timeout, or 0 if the default should be used
+     * @param doNotImport {@code true} to only find an existing transaction, {@code false} to import it if needed
+     * @return the imported transaction, or {@code null} if {@code doNotImport} is set and the transaction is not known
+     * @throws XAException if the import failed for some reason
+     */
+    default ImportResult<?> findOrImportTransaction(Xid xid, int timeout, boolean doNotImport) throws XAException {
+        if (doNotImport && findExistingTransaction(xid) == null) {
+            return null;
+        }
+        return findOrImportTransaction(xid, timeout);
+    }
+
     /**
      * Find an existing transaction on this system.  If no such transaction exists, {@code null} is returned.  Normally
      * the transaction is located only by global ID.
@@ -19,6 +19,7 @@
 package org.wildfly.transaction.client;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
@@ -94,7 +95,7 @@ public interface XAOutflowHandle {
 
             public int getRemainingTime() {
                 long elapsed = System.nanoTime() - start;
-                return timeout - (int) max(timeout, elapsed / 1_000_000_000L);
+                return timeout - (int) min(timeout, max(0L, elapsed) / 1_000_000_000L);
             }
 
             public void forgetEnlistment() {
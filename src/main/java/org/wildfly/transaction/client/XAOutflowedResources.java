@@ -24,62 +24,170 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.transaction.RollbackException;
+import javax.transaction.Status;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import org.wildfly.transaction.client._private.Log;
 
-final class XAOutflowedResources {
+final class XAOutflowedResources implements Synchronization {
+    // outflowed transactions which have not completed, so that peers can report rollbacks of them
+    private static final ConcurrentMap<SimpleXid, XAOutflowedResources> byGtid = new ConcurrentHashMap<>();
 
     private final LocalTransaction transaction;
+    private final OutflowJournal journal;
     private final ConcurrentMap<Key, SubordinateXAResource> enlistments = new ConcurrentHashMap<>();
+    private volatile Xid journalledXid;
 
-    XAOutflowedResources(final LocalTransaction transaction) {
+    XAOutflowedResources(final LocalTransaction transaction, final OutflowJournal journal) {
         this.transaction = transaction;
+        this.journal = journal;
     }
 
-    SubordinateXAResource getOrEnlist(final URI location, final String parentName) throws SystemException, RollbackException {
+    static XAOutflowedResources forGtid(final SimpleXid gtid) {
+        return byGtid.get(gtid);
+    }
+
+    void register() {
+        byGtid.put(getGtid(), this);
+    }
+
+    void unregister() {
+        byGtid.remove(getGtid(), this);
+    }
+
+    private SimpleXid getGtid() {
+        return SimpleXid.of(transaction.getXid()).withoutBranch();
+    }
+
+    /**
+     * Determine whether the transaction was outflowed to the given location.
+     *
+     * @param location the peer location
+     * @return {@code true} if there is an outflow to the location, {@code false} otherwise
+     */
+    boolean hasOutflowTo(final URI location) {
+        for (Key key : enlistments.keySet()) {
+            if (key.getLocation().equals(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the subordinate resource for the given peer, creating it if needed.  The resource is not enlisted with the
+     * transaction until an outflow handle verifies it (see {@link #enlist(SubordinateXAResource)}).
+     */
+    SubordinateXAResource getOrCreate(final URI location, final String parentName) {
         final Key key = new Key(location, parentName);
-        SubordinateXAResource xaResource = enlistments.get(key);
+        final SubordinateXAResource xaResource = enlistments.get(key);
         if (xaResource != null) {
             return xaResource;
         }
-        synchronized (this) {
-            xaResource = enlistments.get(key);
-            if (xaResource != null) {
-                return xaResource;
+        return enlistments.computeIfAbsent(key, k -> new SubordinateXAResource(location, parentName, this));
+    }
+
+    /**
+     * Enlist the given resource with the transaction, if it has not yet been enlisted.  Nothing is done if the
+     * transaction has already started to complete without the resource.
+     *
+     * @param xaResource the resource
+     * @throws SystemException if the enlistment failed
+     * @throws RollbackException if the transaction was rolled back
+     */
+    void enlist(final SubordinateXAResource xaResource) throws SystemException, RollbackException {
+        if (xaResource.isEnlisted()) {
+            // common case
+            return;
+        }
+        // each resource has its own lock, so outflows to different locations enlist in parallel
+        synchronized (xaResource) {
+            if (xaResource.isEnlisted() || xaResource.isCommitted()) {
+                return;
             }
-            xaResource = new SubordinateXAResource(location, parentName);
-            if (! transaction.enlistResource(xaResource)) {
-                throw Log.log.couldNotEnlist();
+            doEnlist(xaResource);
+        }
+    }
+
+    private void doEnlist(final SubordinateXAResource xaResource) throws SystemException, RollbackException {
+        final boolean enlisted;
+        try {
+            enlisted = transaction.enlistResource(xaResource);
+        } catch (SystemException | RollbackException | RuntimeException e) {
+            rollbackUnenlisted(xaResource);
+            throw e;
+        }
+        if (! enlisted) {
+            rollbackUnenlisted(xaResource);
+            throw Log.log.couldNotEnlist();
+        }
+        xaResource.setEnlisted();
+        // enlistment assigned the branch XID
+        final Xid xid = xaResource.getXid();
+        if (journal != null && xid != null) {
+            journal.outflow(xid, xaResource.getLocation(), xaResource.getParentName());
+            journalledXid = xid;
+        }
+    }
+
+    private void rollbackUnenlisted(final SubordinateXAResource xaResource) {
+        // the peer already did work for the transaction, but nothing will complete its branch
+        final Xid xid = xaResource.getXid();
+        xaResource.rollbackUnenlisted(xid == null ? transaction.getXid() : xid);
+    }
+
+    /**
+     * Tell every enlisted peer that the transaction has been marked rollback-only, so that it can stop doing work on
+     * behalf of the transaction before completion reaches it.
+     */
+    void rollbackOnly() {
+        for (SubordinateXAResource xaResource : enlistments.values()) {
+            if (xaResource.isEnlisted()) {
+                xaResource.sendRollbackOnly();
             }
-            final SubordinateXAResource finalXaResource = xaResource;
-            transaction.registerSynchronization(new Synchronization() {
-                public void beforeCompletion() {
-                    try {
-                        if (finalXaResource.commit()) {
-                            finalXaResource.beforeCompletion(finalXaResource.getXid());
+        }
+    }
+
+    public void beforeCompletion() {
+        for (SubordinateXAResource xaResource : enlistments.values()) {
+            synchronized (xaResource) {
+                try {
+                    if (xaResource.commit()) {
+                        // a handle is still outstanding or was verified, so the peer must take part
+                        if (! xaResource.isEnlisted()) {
+                            doEnlist(xaResource);
+                        }
+                        if (transaction.isOnlyResource(xaResource)) {
+                            // the TM will commit in one phase, and the peer runs before-completion as part of that
+                            xaResource.deferBeforeCompletion();
                         } else {
-                            // try and delist, so the TM can maybe perform a 1PC; if it fails that's OK
-                            try {
-                                transaction.delistResource(finalXaResource, XAResource.TMSUCCESS);
-                            } catch (SystemException ignored) {
-                                // optimization failed!
-                            }
+                            xaResource.beforeCompletion(xaResource.getXid());
+                        }
+                    } else if (xaResource.isEnlisted()) {
+                        // try and delist, so the TM can maybe perform a 1PC; if it fails that's OK
+                        try {
+                            transaction.delistResource(xaResource, XAResource.TMSUCCESS);
+                        } catch (SystemException ignored) {
+                            // optimization failed!
                         }
-                    } catch (XAException e) {
-                        throw new SynchronizationException(e);
                     }
+                } catch (XAException | SystemException | RollbackException e) {
+                    throw new SynchronizationException(e);
                 }
+            }
+        }
+    }
 
-                public void afterCompletion(final int status) {
-                    // ignored
-                }
-            });
-            enlistments.put(key, xaResource);
-            return xaResource;
+    public void afterCompletion(final int status) {
+        unregister();
+        // keep the journal entry if the outcome is unknown, so recovery still contacts the peer
+        final Xid xid = journalledXid;
+        if (xid != null && (status == Status.STATUS_COMMITTED || status == Status.STATUS_ROLLEDBACK)) {
+            journal.complete(xid);
         }
     }
 
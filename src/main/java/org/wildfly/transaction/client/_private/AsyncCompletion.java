@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client._private;
+
+import static java.security.AccessController.doPrivileged;
+
+import java.security.PrivilegedAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.wildfly.common.function.ExceptionRunnable;
+
+/**
+ * Support for asynchronous transaction completion.  Completions which can only be done by blocking are run on a
+ * bounded pool of daemon threads; once it is saturated, further completions fail rather than queueing without limit.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class AsyncCompletion {
+    private static final int THREADS = doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.transaction.client.async-completion-threads", Math.max(2, Runtime.getRuntime().availableProcessors()))).intValue();
+    private static final int QUEUE_SIZE = 1024;
+
+    private AsyncCompletion() {
+    }
+
+    /**
+     * Get the executor for blocking completions.
+     *
+     * @return the executor (not {@code null})
+     */
+    public static Executor getExecutor() {
+        return ExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Run a blocking task on the given executor.
+     *
+     * @param task the task to run
+     * @param executor the executor to run it on
+     * @return a future which completes with the outcome of the task, or with the rejection if it could not be run
+     */
+    public static CompletableFuture<Void> run(final ExceptionRunnable<?> task, final Executor executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                    return;
+                }
+                future.complete(null);
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public static <T> CompletableFuture<T> failed(final Throwable cause) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    public static Throwable unwrap(final Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    static final class ExecutorHolder {
+        static final Executor EXECUTOR;
+
+        static {
+            final AtomicInteger count = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                final Thread thread = new Thread(r, "transaction-completion-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+
+        private ExecutorHolder() {
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.wildfly.transaction.client._private;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.util.ServiceConfigurationError;
 
 import javax.transaction.HeuristicCommitException;
@@ -68,6 +69,22 @@ public interface Log extends BasicLogger {
     @Message(value = "Closing the recovery stream after recovery failed threw an exception")
     void recoverySuppressedException(@Cause XAException e);
 
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(value = "Rolled back %d outstanding transaction(s) of closed connection to %s in %d ms")
+    void disconnectRollbackComplete(int count, URI peerUri, long millis);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(value = "Failed to send the early rollback of an expired transaction to %s")
+    void earlyRollbackFailed(URI location, @Cause XAException e);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(value = "Failed to roll back the branch at %s after it could not be enlisted")
+    void unenlistedRollbackFailed(URI location, @Cause XAException e);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(value = "Failed to send a rollback-only hint to %s")
+    void rollbackOnlyHintFailed(URI location, @Cause XAException e);
+
     // Trace
 
     @LogMessage(level = Logger.Level.TRACE)
@@ -326,4 +343,25 @@ public interface Log extends BasicLogger {
 
     @Message(id = 81, value = "Invalid transaction state for operation")
     XAException invalidTxStateXa(@Field int errorCode);
+
+    @Message(id = 82, value = "No transaction provider installed for URI: %s")
+    XAException noProviderForUriXa(@Field int errorCode, URI uri);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 83, value = "Recovery scan of %s did not complete within the timeout")
+    void recoveryScanTimedOut(URI location);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 84, value = "Recovery scan of %s failed")
+    void recoveryScanFailed(URI location, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 85, value = "Outflow journal %s failed; outflows will no longer be journalled")
+    void outflowJournalFailed(Path path, @Cause IOException cause);
+
+    @Message(id = 86, value = "Timed out waiting for an XA response from %s")
+    XAException responseTimedOutXa(@Field int errorCode, URI location);
+
+    @Message(id = 87, value = "Recovery scan of %s was abandoned")
+    XAException recoveryScanFailedXa(@Field int errorCode, URI location);
 }
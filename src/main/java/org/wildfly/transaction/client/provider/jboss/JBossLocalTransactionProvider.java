@@ -27,9 +27,11 @@ import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.security.PrivilegedAction;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.resource.spi.XATerminator;
@@ -123,8 +125,7 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
             try {
                 tm.begin();
                 final Transaction transaction = tm.suspend();
-                SimpleXid gtid = SimpleXid.of(((TransactionImple) transaction).getTxId()).withoutBranch();
-                known.put(gtid, getEntryFor(transaction, gtid));
+                // the transaction is only tracked by XID once it is outflowed
                 // Narayana doesn't actually throw exceptions here so this should be fine
                 tm.setTransactionTimeout(oldTimeout);
                 return transaction;
@@ -228,6 +229,11 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
         return ((TransactionImple) transaction).getTxId();
     }
 
+    public boolean isOnlyResource(@NotNull final Transaction transaction, @NotNull final XAResource resource) {
+        final Map<XAResource, ?> resources = ((TransactionImple) transaction).getResources();
+        return resources != null && resources.size() == 1 && resources.containsKey(resource);
+    }
+
     @NotNull
     public String getNodeName() {
         final String nodeIdentifier = arjPropertyManager.getCoreEnvironmentBean().getNodeIdentifier();
@@ -237,6 +243,53 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
         return nodeIdentifier;
     }
 
+    public void registerOutflow(@NotNull final Transaction transaction) {
+        getKnownEntryFor(transaction, SimpleXid.of(getXid(transaction)).withoutBranch());
+    }
+
+    /**
+     * Get the entry registered for the given XID, registering the entry of the given transaction if there is none.  An
+     * entry which expired while its transaction was still live is registered again.
+     */
+    Entry getKnownEntryFor(Transaction transaction, SimpleXid gtid) {
+        final Entry entry = getEntryFor(transaction, gtid);
+        final long timeTick = getTimeTick();
+        // imports and outflows clear off expired entries too, so they do not wait for a tracked transaction to complete
+        removeExpiredEntries(timeTick);
+        final Entry appearing = known.putIfAbsent(gtid, entry);
+        if (appearing != null) {
+            return appearing;
+        }
+        int lifetime = getTimeout(transaction) + staleTransactionTime;
+        // this is the maximum amount of time we expect any potential incoming peer might know about this transaction ID
+        timeoutSet.add(new XidKey(gtid, timeTick + lifetime * 1_000_000_000L));
+        if (entry.tracked.compareAndSet(false, true)) {
+            registerInterposedSynchronization(transaction, new Synchronization() {
+                public void beforeCompletion() {
+                    // no operation
+                }
+
+                public void afterCompletion(final int status) {
+                    // let the TM do some heavy lifting for us
+                    removeExpiredEntries(getTimeTick());
+                }
+            });
+        }
+        return entry;
+    }
+
+    void removeExpiredEntries(final long timeTick) {
+        final ConcurrentMap<SimpleXid, Entry> known = this.known;
+        final Iterator<XidKey> iterator = timeoutSet.headSet(new XidKey(SimpleXid.EMPTY, timeTick)).iterator();
+        while (iterator.hasNext()) {
+            known.remove(iterator.next().gtid);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Get the entry for the given transaction, without registering it to be found by XID.
+     */
     Entry getEntryFor(Transaction transaction, SimpleXid gtid) {
         Entry entry = (Entry) getResource(transaction, ENTRY_KEY);
         if (entry != null) {
@@ -249,27 +302,6 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
             }
             putResource(transaction, ENTRY_KEY, entry = new Entry(gtid, transaction));
         }
-        int lifetime = getTimeout(transaction) + staleTransactionTime;
-        final long timeTick = getTimeTick();
-        // this is the maximum amount of time we expect any potential incoming peer might know about this transaction ID
-        timeoutSet.add(new XidKey(gtid, timeTick + lifetime * 1_000_000_000L));
-        registerInterposedSynchronization(transaction, new Synchronization() {
-            public void beforeCompletion() {
-                // no operation
-            }
-
-            public void afterCompletion(final int status) {
-                // let the TM do some heavy lifting for us
-                final long timeTick = getTimeTick();
-                // clear off all expired entries
-                final ConcurrentMap<SimpleXid, Entry> known = JBossLocalTransactionProvider.this.known;
-                final Iterator<XidKey> iterator = timeoutSet.headSet(new XidKey(SimpleXid.EMPTY, timeTick)).iterator();
-                while (iterator.hasNext()) {
-                    known.remove(iterator.next().gtid);
-                    iterator.remove();
-                }
-            }
-        });
         return entry;
     }
 
@@ -324,6 +356,7 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
         private final SimpleXid gtid;
         private final Transaction transaction;
         private final AtomicInteger completionBits = new AtomicInteger(0);
+        private final AtomicBoolean tracked = new AtomicBoolean();
         private final long start = System.nanoTime();
 
         Entry(final SimpleXid gtid, final Transaction transaction) {
@@ -441,6 +474,16 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
             }
         }
 
+        public boolean beforeCompletionReadOnly() throws XAException {
+            beforeCompletion();
+            final Map<XAResource, ?> resources = ((TransactionImple) transaction).getResources();
+            if (resources != null && ! resources.isEmpty()) {
+                return false;
+            }
+            // nothing was enlisted, so the vote is known; prepare now to release the imported transaction early
+            return prepare() == XAResource.XA_RDONLY;
+        }
+
         public int prepare() throws XAException {
             final Transaction transaction = this.transaction;
             if (! (transaction instanceof ImportedTransaction)) {
@@ -524,6 +567,11 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
             final ImportedTransaction importedTransaction = (ImportedTransaction) transaction;
             try {
                 if (onePhase) {
+                    // the sole participant may defer before-completion to the one-phase commit, saving a round trip
+                    if ((oldVal & BIT_BEFORE_COMP) == 0 && ! importedTransaction.doBeforeCompletion()) {
+                        importedTransaction.doRollback();
+                        throw new RollbackException();
+                    }
                     importedTransaction.doOnePhaseCommit();
                 } else {
                     if (! importedTransaction.doCommit()) {
@@ -574,14 +622,31 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
                 }
                 final TransactionImportResult result = ext.importTransaction(xid, timeout);
                 final ImportedTransaction transaction = result.getTransaction();
-                entry = getEntryFor(transaction, gtid);
-                final Entry appearing = known.putIfAbsent(gtid, entry);
-                if (appearing != null) {
-                    // even if someone else beat us to the map, we still might have imported first... preserve the original Entry for economy though
-                    return new ImportResult<Transaction>(transaction, appearing, result.isNewImportedTransaction());
-                } else {
-                    return new ImportResult<Transaction>(transaction, entry, result.isNewImportedTransaction());
+                // if someone else beat us to the map, their entry is preserved for economy
+                return new ImportResult<Transaction>(transaction, getKnownEntryFor(transaction, gtid), result.isNewImportedTransaction());
+            } catch (XAException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw Log.log.resourceManagerErrorXa(XAException.XAER_RMFAIL, t);
+            }
+        }
+
+        public ImportResult<Transaction> findOrImportTransaction(final Xid xid, final int timeout, final boolean doNotImport) throws XAException {
+            if (! doNotImport) {
+                return findOrImportTransaction(xid, timeout);
+            }
+            try {
+                final SimpleXid gtid = SimpleXid.of(xid).withoutBranch();
+                final ConcurrentMap<SimpleXid, Entry> known = JBossLocalTransactionProvider.this.known;
+                Entry entry = known.get(gtid);
+                if (entry == null) {
+                    final Transaction transaction = ext.getTransaction(xid);
+                    if (transaction == null) {
+                        return null;
+                    }
+                    entry = getKnownEntryFor(transaction, gtid);
                 }
+                return new ImportResult<Transaction>(entry.getTransaction(), entry, false);
             } catch (XAException e) {
                 throw e;
             } catch (Throwable t) {
@@ -603,7 +668,7 @@ public final class JBossLocalTransactionProvider implements LocalTransactionProv
                 if (transaction == null) {
                     return null;
                 }
-                return known.computeIfAbsent(gtid, g -> getEntryFor(transaction, g)).getTransaction();
+                return getKnownEntryFor(transaction, gtid).getTransaction();
             } catch (XAException e) {
                 throw e;
             } catch (Throwable t) {
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import static org.xnio.IoUtils.safeClose;
+
+import java.io.IOException;
+
+import org.jboss.remoting3.ChannelClosedException;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.util.Invocation;
+
+/**
+ * An invocation whose response is handled by a callback rather than by a waiting thread.  The callback runs on the
+ * thread which delivers the response, so it must not block.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class CallbackInvocation extends Invocation {
+    private final Callback callback;
+
+    CallbackInvocation(final int index, final Callback callback) {
+        super(index);
+        this.callback = callback;
+    }
+
+    public void handleResponse(final int parameter, final MessageInputStream inputStream) {
+        try {
+            callback.handleResponse(inputStream);
+        } finally {
+            safeClose(inputStream);
+        }
+    }
+
+    public void handleClosed() {
+        callback.handleFailure(new ChannelClosedException("Channel was closed"));
+    }
+
+    interface Callback {
+        void handleResponse(MessageInputStream inputStream);
+
+        void handleFailure(IOException cause);
+    }
+}
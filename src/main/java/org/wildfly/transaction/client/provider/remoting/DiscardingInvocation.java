@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import static org.xnio.IoUtils.safeClose;
+
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.util.Invocation;
+
+/**
+ * An invocation whose response nobody waits for.  The response is discarded as soon as it arrives.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class DiscardingInvocation extends Invocation {
+    DiscardingInvocation(final int index) {
+        super(index);
+    }
+
+    public void handleResponse(final int parameter, final MessageInputStream inputStream) {
+        safeClose(inputStream);
+    }
+
+    public void handleClosed() {
+    }
+}
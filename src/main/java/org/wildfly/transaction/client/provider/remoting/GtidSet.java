@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import java.util.Arrays;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * A compact, open-addressed set of global transaction IDs (format ID plus global transaction ID bytes), used to
+ * de-duplicate recovery scan results without allocating a branch-less XID object per entry.  Not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class GtidSet {
+    private int[] formatIds;
+    private int[] hashes;
+    private byte[][] gtids;
+    private int size;
+
+    GtidSet() {
+        allocate(64);
+    }
+
+    private void allocate(final int capacity) {
+        formatIds = new int[capacity];
+        hashes = new int[capacity];
+        gtids = new byte[capacity][];
+    }
+
+    /**
+     * Add the global transaction of the given XID to the set.
+     *
+     * @param xid the XID
+     * @return {@code true} if the global transaction was not already present, {@code false} otherwise
+     */
+    boolean add(final Xid xid) {
+        return add(xid.getFormatId(), xid.getGlobalTransactionId());
+    }
+
+    boolean add(final int formatId, final byte[] gtid) {
+        final int hash = hash(formatId, gtid);
+        byte[][] gtids = this.gtids;
+        int mask = gtids.length - 1;
+        int idx = hash & mask;
+        byte[] existing;
+        while ((existing = gtids[idx]) != null) {
+            if (hashes[idx] == hash && formatIds[idx] == formatId && Arrays.equals(existing, gtid)) {
+                return false;
+            }
+            idx = idx + 1 & mask;
+        }
+        if (size + 1 > gtids.length >> 1) {
+            grow();
+            gtids = this.gtids;
+            mask = gtids.length - 1;
+            idx = hash & mask;
+            while (gtids[idx] != null) {
+                idx = idx + 1 & mask;
+            }
+        }
+        formatIds[idx] = formatId;
+        hashes[idx] = hash;
+        gtids[idx] = gtid;
+        size ++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        final int[] oldFormatIds = formatIds;
+        final int[] oldHashes = hashes;
+        final byte[][] oldGtids = gtids;
+        allocate(oldGtids.length << 1);
+        final int mask = gtids.length - 1;
+        for (int i = 0; i < oldGtids.length; i ++) {
+            final byte[] gtid = oldGtids[i];
+            if (gtid != null) {
+                int idx = oldHashes[i] & mask;
+                while (gtids[idx] != null) {
+                    idx = idx + 1 & mask;
+                }
+                formatIds[idx] = oldFormatIds[i];
+                hashes[idx] = oldHashes[i];
+                gtids[idx] = gtid;
+            }
+        }
+    }
+
+    private static int hash(final int formatId, final byte[] gtid) {
+        final int h = formatId * 31 + Arrays.hashCode(gtid);
+        // spread the bits, since the low bits of the array hash are not well distributed for similar IDs
+        return h ^ h >>> 16;
+    }
+}
@@ -41,7 +41,7 @@ class Protocol {
     public static final int VERSION_MIN = 0;
     public static final int VERSION_MAX = 0;
 
-    // all msgs are initiated by the client
+    // all msgs are initiated by the client, except for notifications which the client asked for with P_NOTIFY
     // msg format
     // byte 0-1: inv ID
     // byte 2: M_ message type
@@ -61,15 +61,15 @@ class Protocol {
     // Roll back the transaction with the given XID
     public static final int M_XA_ROLLBACK   = 0x02; // P_XID(gtid) [ P_SEC_CONTEXT ]
     // Prepare the transaction with the given XID
-    public static final int M_XA_PREPARE    = 0x03; // P_XID(gtid) [ P_SEC_CONTEXT ]
+    public static final int M_XA_PREPARE    = 0x03; // P_XID(gtid) [ P_SEC_CONTEXT ] [ P_TXN_TIMEOUT ]
     // Commit the transaction with the given XID
     public static final int M_XA_COMMIT     = 0x04; // P_XID(gtid) [ P_SEC_CONTEXT ] [ P_ONE_PHASE ]
     // Forget the transaction with the given XID
     public static final int M_XA_FORGET     = 0x05; // P_XID(gtid) [ P_SEC_CONTEXT ]
     // Execute before-completion for the transaction with the given XID
-    public static final int M_XA_BEFORE     = 0x06; // P_XID(gtid) [ P_SEC_CONTEXT ]
-    // Get a list of XIDs to recover
-    public static final int M_XA_RECOVER    = 0x07; // [ P_SEC_CONTEXT ] [ P_PARENT_NAME ]
+    public static final int M_XA_BEFORE     = 0x06; // P_XID(gtid) [ P_SEC_CONTEXT ] [ P_XA_RDONLY ]
+    // Get a list of XIDs to recover; if P_XA_FLAGS is given, the server keeps a cursor and returns at most P_XA_COUNT XIDs
+    public static final int M_XA_RECOVER    = 0x07; // [ P_SEC_CONTEXT ] [ P_PARENT_NAME ] [ P_XA_FLAGS [ P_XA_COUNT ] ]
     // Mark the XA transaction as rollback-only; used if the resource was called with TMFAIL
     public static final int M_XA_RB_ONLY    = 0x08; // P_XID(gtid) [ P_SEC_CONTEXT ]
     // Unused
@@ -88,14 +88,17 @@ class Protocol {
     public static final int M_RESP_XA_PREPARE   = 0x13; // [ P_XA_RDONLY | P_XA_ERROR | P_SEC_EXC ]
     public static final int M_RESP_XA_COMMIT    = 0x14; // [ P_XA_ERROR | P_SEC_EXC ]
     public static final int M_RESP_XA_FORGET    = 0x15; // [ P_XA_ERROR | P_SEC_EXC ]
-    public static final int M_RESP_XA_BEFORE    = 0x16; // [ P_XA_ERROR | P_SEC_EXC ]
+    public static final int M_RESP_XA_BEFORE    = 0x16; // [ P_XA_RDONLY | P_XA_ERROR | P_SEC_EXC ]
 
-    public static final int M_RESP_XA_RECOVER   = 0x17; // P_XID... | P_XA_ERROR | P_SEC_EXC
+    public static final int M_RESP_XA_RECOVER   = 0x17; // P_XID... [ P_XA_MORE ] | P_XA_ERROR | P_SEC_EXC
 
     public static final int M_RESP_UT_BEGIN     = 0x18; // [ P_UT_SYS_EXC | P_SEC_EXC ]
     public static final int M_RESP_UT_COMMIT    = 0x19; // [ P_UT_RB_EXC | P_UT_HME_EXC | P_UT_HRE_EXC | P_UT_SYS_EXC | P_SEC_EXC ]
     public static final int M_RESP_UT_ROLLBACK  = 0x1A; // [ P_UT_SYS_EXC | P_SEC_EXC ]
 
+    // unsolicited, sent on the notification inv ID: the transaction was rolled back because it timed out
+    public static final int M_NOTIFY_ROLLED_BACK = 0x20; // P_TXN_CONTEXT | P_XID(gtid)
+
     public static final int M_RESP_PARAM_ERROR  = 0xFE; // empty (missing required or found unknown parameter)
     public static final int M_RESP_ERROR        = 0xFF; // empty (unknown request code)
 
@@ -105,10 +108,12 @@ class Protocol {
     public static final int P_XID           = 0x01; // body = XID
     public static final int P_ONE_PHASE     = 0x02; // len=0
     public static final int P_PARENT_NAME   = 0x03; // body = utf8
-    // unused                                 0x04
-    // unused                                 0x05
+    public static final int P_XA_FLAGS      = 0x04; // body = packed-int XA flags
+    public static final int P_XA_COUNT      = 0x05; // body = packed-int maximum item count
     public static final int P_TXN_TIMEOUT   = 0x06; // body = packed-int timeout (seconds)
     public static final int P_XA_RDONLY     = 0x07; // len=0
+    public static final int P_XA_MORE       = 0x08; // len=0; the recovery cursor has further XIDs
+    public static final int P_NOTIFY        = 0x09; // capability; body = uint16 inv ID reserved for notifications (c -> s), len=0 (s -> c)
 
     public static final int P_UT_RB_EXC     = 0x10; // RollbackException
     public static final int P_UT_HME_EXC    = 0x11; // HeuristicMixedException
@@ -238,6 +243,18 @@ class Protocol {
         os.write(bq);
     }
 
+    public static void writeGtidParam(int param, OutputStream os, int formatId, byte[] gtid) throws IOException {
+        if (gtid.length > Xid.MAXGTRIDSIZE) {
+            throw new IOException("Cannot write invalid XID");
+        }
+        // same encoding as an XID with an empty branch qualifier
+        writeInt8(os, param);
+        writePackedUnsignedInt32(os, gtid.length + 5);
+        writeInt32BE(os, formatId);
+        writeInt8(os, gtid.length);
+        os.write(gtid);
+    }
+
     public static int readIntParam(InputStream is, int len) throws IOException {
         int t = 0;
         for (int i = 0; i < len; i ++) {
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.transaction.client.SimpleXid;
+
+/**
+ * A bounded cache of the global transaction IDs of recently completed transactions.  Once full, the oldest entry is
+ * evicted for each new one.  Lookups are lock-free.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class RecentGtidCache {
+    private final Set<SimpleXid> set = ConcurrentHashMap.newKeySet();
+    private final SimpleXid[] ring;
+    private int next;
+
+    RecentGtidCache(final int capacity) {
+        ring = new SimpleXid[capacity];
+    }
+
+    /**
+     * Determine whether the given global transaction ID was recently completed.
+     *
+     * @param gtid the branch-less XID
+     * @return {@code true} if the transaction is known to be complete, {@code false} otherwise
+     */
+    boolean contains(final SimpleXid gtid) {
+        return set.contains(gtid);
+    }
+
+    /**
+     * Record that the given global transaction has completed.
+     *
+     * @param gtid the branch-less XID
+     */
+    synchronized void add(final SimpleXid gtid) {
+        if (set.add(gtid)) {
+            final SimpleXid[] ring = this.ring;
+            final int next = this.next;
+            final SimpleXid evicted = ring[next];
+            if (evicted != null) {
+                set.remove(evicted);
+            }
+            ring[next] = gtid;
+            this.next = next + 1 == ring.length ? 0 : next + 1;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of recently reaped transaction context IDs.  Once full, the oldest entry is evicted for each new one.
+ * Lookups are lock-free.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class RecentIdCache {
+    private final Set<Integer> set = ConcurrentHashMap.newKeySet();
+    private final int[] ring;
+    private int next;
+    private int size;
+
+    RecentIdCache(final int capacity) {
+        ring = new int[capacity];
+    }
+
+    /**
+     * Determine whether the given context ID was recently reaped.
+     *
+     * @param id the context ID
+     * @return {@code true} if the transaction is known to have been reaped, {@code false} otherwise
+     */
+    boolean contains(final int id) {
+        return set.contains(Integer.valueOf(id));
+    }
+
+    /**
+     * Record that the transaction with the given context ID has been reaped.
+     *
+     * @param id the context ID
+     */
+    synchronized void add(final int id) {
+        if (set.add(Integer.valueOf(id))) {
+            final int[] ring = this.ring;
+            final int next = this.next;
+            if (size == ring.length) {
+                set.remove(Integer.valueOf(ring[next]));
+            } else {
+                size ++;
+            }
+            ring[next] = id;
+            this.next = next + 1 == ring.length ? 0 : next + 1;
+        }
+    }
+}
@@ -34,12 +34,29 @@ public interface RemotingOperations {
 
     int prepare(Xid xid) throws XAException;
 
+    default int prepare(Xid xid, int remainingTimeout) throws XAException {
+        return prepare(xid);
+    }
+
     void rollback(Xid xid) throws XAException;
 
+    default void rollbackAsync(Xid xid) throws XAException {
+        rollback(xid);
+    }
+
     void setRollbackOnly(Xid xid) throws XAException;
 
+    default void setRollbackOnlyAsync(Xid xid) throws XAException {
+        setRollbackOnly(xid);
+    }
+
     void beforeCompletion(Xid xid) throws XAException;
 
+    default boolean beforeCompletionReadOnly(Xid xid) throws XAException {
+        beforeCompletion(xid);
+        return false;
+    }
+
     Xid[] recover(int flag, String parentName) throws XAException;
 
     SimpleTransactionControl begin(int timeout) throws SystemException;
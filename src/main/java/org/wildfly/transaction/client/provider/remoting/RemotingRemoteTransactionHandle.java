@@ -20,6 +20,10 @@ package org.wildfly.transaction.client.provider.remoting;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.HeuristicMixedException;
@@ -32,10 +36,12 @@ import org.jboss.remoting3.Connection;
 import org.jboss.remoting3.MessageInputStream;
 import org.jboss.remoting3.MessageOutputStream;
 import org.jboss.remoting3.util.BlockingInvocation;
+import org.jboss.remoting3.util.Invocation;
 import org.jboss.remoting3.util.InvocationTracker;
 import org.jboss.remoting3.util.StreamUtils;
 import org.wildfly.common.Assert;
 import org.wildfly.security.auth.AuthenticationException;
+import org.wildfly.transaction.client._private.AsyncCompletion;
 import org.wildfly.transaction.client._private.Log;
 import org.wildfly.transaction.client.spi.SimpleTransactionControl;
 
@@ -47,6 +53,8 @@ class RemotingRemoteTransactionHandle implements SimpleTransactionControl {
     private final TransactionClientChannel channel;
     private final AtomicInteger statusRef = new AtomicInteger(Status.STATUS_ACTIVE);
     private final int id;
+    // the peer notified us that it rolled the transaction back, so completion need not wait for it
+    private volatile boolean rolledBackByPeer;
     private final SimpleIdResolver resolver = connection -> {
         Assert.checkNotNullParam("connection", connection);
         final URI peerURI = connection.getPeerURI();
@@ -71,21 +79,43 @@ class RemotingRemoteTransactionHandle implements SimpleTransactionControl {
 
     public void disconnect() {
         final AtomicInteger statusRef = this.statusRef;
-        synchronized (statusRef) {
-            final int oldVal = statusRef.get();
-            if (oldVal == Status.STATUS_ACTIVE || oldVal == Status.STATUS_MARKED_ROLLBACK) {
-                statusRef.set(Status.STATUS_ROLLEDBACK);
+        int oldVal;
+        do {
+            oldVal = statusRef.get();
+            if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
+                return;
             }
+        } while (! statusRef.compareAndSet(oldVal, Status.STATUS_ROLLEDBACK));
+    }
+
+    /**
+     * Mark the transaction rollback-only because the peer has already rolled it back, so that no further work is
+     * done in it.  Completing the transaction then only releases the peer's record of it, without waiting for a
+     * response.
+     */
+    void rolledBackByPeer() {
+        rolledBackByPeer = true;
+        statusRef.compareAndSet(Status.STATUS_ACTIVE, Status.STATUS_MARKED_ROLLBACK);
+    }
+
+    private void releaseRolledBack() {
+        final InvocationTracker invocationTracker = channel.getInvocationTracker();
+        final DiscardingInvocation invocation = invocationTracker.addInvocation(DiscardingInvocation::new);
+        try {
+            writeRequest(invocation, Protocol.M_UT_ROLLBACK);
+        } catch (SystemException e) {
+            // the peer releases it anyway once the connection closes
+            invocationTracker.remove(invocation);
+            Log.log.outboundException(e);
         }
+        statusRef.set(Status.STATUS_ROLLEDBACK);
     }
 
     public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, SystemException {
         final AtomicInteger statusRef = this.statusRef;
-        int oldVal = statusRef.get();
-        if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
-            throw Log.log.invalidTxnState();
-        }
-        synchronized (statusRef) {
+        int oldVal;
+        // claim the transaction without holding a lock across the round trip
+        do {
             oldVal = statusRef.get();
             if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
                 rollback();
@@ -94,160 +124,236 @@ class RemotingRemoteTransactionHandle implements SimpleTransactionControl {
             if (oldVal != Status.STATUS_ACTIVE) {
                 throw Log.log.invalidTxnState();
             }
-            statusRef.set(Status.STATUS_COMMITTING);
-            try {
-                final InvocationTracker invocationTracker = channel.getInvocationTracker();
-                final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
-                // write request
-                try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
-                    os.writeShort(invocation.getIndex());
-                    os.writeByte(Protocol.M_UT_COMMIT);
-                    Protocol.writeParam(Protocol.P_TXN_CONTEXT, os, id, Protocol.UNSIGNED);
-                    final int peerIdentityId = channel.getConnection().getPeerIdentityId();
-                    if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
-                } catch (IOException | AuthenticationException e) {
-                    statusRef.set(Status.STATUS_UNKNOWN);
-                    throw Log.log.failedToSend(e);
-                }
-                try (BlockingInvocation.Response response = invocation.getResponse()) {
-                    try (MessageInputStream is = response.getInputStream()) {
-                        if (is.readUnsignedByte() != Protocol.M_RESP_UT_COMMIT) {
-                            throw Log.log.unknownResponse();
-                        }
-                        int id = is.read();
-                        if (id != -1) do {
-                            // skip content
-                            Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
-                        } while (is.read() != -1);
-                        if (id == -1) {
-                            statusRef.set(Status.STATUS_COMMITTED);
-                        } else if (id == Protocol.P_UT_HME_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerHeuristicMixedException();
-                        } else if (id == Protocol.P_UT_HRE_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerHeuristicRollbackException();
-                        } else if (id == Protocol.P_UT_IS_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerIllegalStateException();
-                        } else if (id == Protocol.P_UT_RB_EXC) {
-                            statusRef.set(Status.STATUS_ROLLEDBACK);
-                            throw Log.log.transactionRolledBackByPeer();
-                        } else if (id == Protocol.P_UT_SYS_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerSystemException();
-                        } else if (id == Protocol.P_SEC_EXC) {
-                            statusRef.set(oldVal);
-                            throw Log.log.peerSecurityException();
-                        } else {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.unknownResponse();
-                        }
-                    } catch (IOException e) {
-                        statusRef.set(Status.STATUS_UNKNOWN);
-                        throw Log.log.responseFailed(e);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    statusRef.set(Status.STATUS_UNKNOWN);
-                    throw Log.log.operationInterrupted();
+        } while (! statusRef.compareAndSet(Status.STATUS_ACTIVE, Status.STATUS_COMMITTING));
+        try {
+            final InvocationTracker invocationTracker = channel.getInvocationTracker();
+            final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+            writeRequest(invocation, Protocol.M_UT_COMMIT);
+            try (BlockingInvocation.Response response = invocation.getResponse()) {
+                try (MessageInputStream is = response.getInputStream()) {
+                    readCommitResponse(is, oldVal);
                 } catch (IOException e) {
-                    // failed to close the response, but we don't care too much
-                    Log.log.inboundException(e);
+                    statusRef.set(Status.STATUS_UNKNOWN);
+                    throw Log.log.responseFailed(e);
                 }
-            } finally {
-                statusRef.compareAndSet(Status.STATUS_COMMITTING, Status.STATUS_UNKNOWN);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                statusRef.set(Status.STATUS_UNKNOWN);
+                throw Log.log.operationInterrupted();
+            } catch (IOException e) {
+                // failed to close the response, but we don't care too much
+                Log.log.inboundException(e);
             }
+        } finally {
+            statusRef.compareAndSet(Status.STATUS_COMMITTING, Status.STATUS_UNKNOWN);
         }
     }
 
-    public void rollback() throws SecurityException, SystemException {
+    public CompletionStage<Void> commitAsync(final Executor executor) {
         final AtomicInteger statusRef = this.statusRef;
-        int oldVal = statusRef.get();
-        if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
-            throw Log.log.invalidTxnState();
+        int oldVal;
+        do {
+            oldVal = statusRef.get();
+            if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
+                final CompletableFuture<Void> future = new CompletableFuture<>();
+                rollbackAsync(executor).whenComplete((ignored, t) -> future.completeExceptionally(t == null ? Log.log.rollbackOnlyRollback() : t));
+                return future;
+            }
+            if (oldVal != Status.STATUS_ACTIVE) {
+                return AsyncCompletion.failed(Log.log.invalidTxnState());
+            }
+        } while (! statusRef.compareAndSet(Status.STATUS_ACTIVE, Status.STATUS_COMMITTING));
+        final int finalOldVal = oldVal;
+        return invokeAsync(Protocol.M_UT_COMMIT, Status.STATUS_COMMITTING, is -> readCommitResponse(is, finalOldVal), executor);
+    }
+
+    private void readCommitResponse(final MessageInputStream is, final int oldVal) throws IOException, RollbackException, HeuristicMixedException, HeuristicRollbackException, SystemException {
+        if (is.readUnsignedByte() != Protocol.M_RESP_UT_COMMIT) {
+            throw Log.log.unknownResponse();
+        }
+        int id = is.read();
+        if (id != -1) do {
+            // skip content
+            Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
+        } while (is.read() != -1);
+        if (id == -1) {
+            statusRef.set(Status.STATUS_COMMITTED);
+        } else if (id == Protocol.P_UT_HME_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerHeuristicMixedException();
+        } else if (id == Protocol.P_UT_HRE_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerHeuristicRollbackException();
+        } else if (id == Protocol.P_UT_IS_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerIllegalStateException();
+        } else if (id == Protocol.P_UT_RB_EXC) {
+            statusRef.set(Status.STATUS_ROLLEDBACK);
+            throw Log.log.transactionRolledBackByPeer();
+        } else if (id == Protocol.P_UT_SYS_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerSystemException();
+        } else if (id == Protocol.P_SEC_EXC) {
+            statusRef.set(oldVal);
+            throw Log.log.peerSecurityException();
+        } else {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.unknownResponse();
         }
-        synchronized (statusRef) {
+    }
+
+    public void rollback() throws SecurityException, SystemException {
+        final AtomicInteger statusRef = this.statusRef;
+        int oldVal;
+        do {
             oldVal = statusRef.get();
             if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
                 throw Log.log.invalidTxnState();
             }
-            statusRef.set(Status.STATUS_ROLLING_BACK);
-            try {
-                final InvocationTracker invocationTracker = channel.getInvocationTracker();
-                final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
-                // write request
-                try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
-                    os.writeShort(invocation.getIndex());
-                    os.writeByte(Protocol.M_UT_ROLLBACK);
-                    Protocol.writeParam(Protocol.P_TXN_CONTEXT, os, id, Protocol.UNSIGNED);
-                    final int peerIdentityId = channel.getConnection().getPeerIdentityId();
-                    if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
-                } catch (IOException | AuthenticationException e) {
+        } while (! statusRef.compareAndSet(oldVal, Status.STATUS_ROLLING_BACK));
+        if (rolledBackByPeer) {
+            releaseRolledBack();
+            return;
+        }
+        try {
+            final InvocationTracker invocationTracker = channel.getInvocationTracker();
+            final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+            writeRequest(invocation, Protocol.M_UT_ROLLBACK);
+            try (BlockingInvocation.Response response = invocation.getResponse()) {
+                try (MessageInputStream is = response.getInputStream()) {
+                    readRollbackResponse(is, oldVal);
+                } catch (IOException e) {
                     statusRef.set(Status.STATUS_UNKNOWN);
-                    throw Log.log.failedToSend(e);
+                    throw Log.log.responseFailed(e);
                 }
-                try (BlockingInvocation.Response response = invocation.getResponse()) {
-                    try (MessageInputStream is = response.getInputStream()) {
-                        if (is.readUnsignedByte() != Protocol.M_RESP_UT_ROLLBACK) {
-                            throw Log.log.unknownResponse();
-                        }
-                        int id = is.read();
-                        if (id != -1) do {
-                            // skip content
-                            Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
-                        } while (is.read() != -1);
-                        if (id == -1) {
-                            statusRef.set(Status.STATUS_ROLLEDBACK);
-                        } else if (id == Protocol.P_UT_IS_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerIllegalStateException();
-                        } else if (id == Protocol.P_UT_SYS_EXC) {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.peerSystemException();
-                        } else if (id == Protocol.P_SEC_EXC) {
-                            statusRef.set(oldVal);
-                            throw Log.log.peerSecurityException();
-                        } else {
-                            statusRef.set(Status.STATUS_UNKNOWN);
-                            throw Log.log.unknownResponse();
-                        }
-                    } catch (IOException e) {
-                        statusRef.set(Status.STATUS_UNKNOWN);
-                        throw Log.log.responseFailed(e);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    statusRef.set(Status.STATUS_UNKNOWN);
-                    throw Log.log.operationInterrupted();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                statusRef.set(Status.STATUS_UNKNOWN);
+                throw Log.log.operationInterrupted();
+            } catch (IOException e) {
+                // failed to close the response, but we don't care too much
+                Log.log.inboundException(e);
+            }
+        } finally {
+            statusRef.compareAndSet(Status.STATUS_ROLLING_BACK, Status.STATUS_UNKNOWN);
+        }
+    }
+
+    public CompletionStage<Void> rollbackAsync(final Executor executor) {
+        final AtomicInteger statusRef = this.statusRef;
+        int oldVal;
+        do {
+            oldVal = statusRef.get();
+            if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
+                return AsyncCompletion.failed(Log.log.invalidTxnState());
+            }
+        } while (! statusRef.compareAndSet(oldVal, Status.STATUS_ROLLING_BACK));
+        if (rolledBackByPeer) {
+            releaseRolledBack();
+            return CompletableFuture.completedFuture(null);
+        }
+        final int finalOldVal = oldVal;
+        return invokeAsync(Protocol.M_UT_ROLLBACK, Status.STATUS_ROLLING_BACK, is -> readRollbackResponse(is, finalOldVal), executor);
+    }
+
+    private void readRollbackResponse(final MessageInputStream is, final int oldVal) throws IOException, SystemException {
+        if (is.readUnsignedByte() != Protocol.M_RESP_UT_ROLLBACK) {
+            throw Log.log.unknownResponse();
+        }
+        int id = is.read();
+        if (id != -1) do {
+            // skip content
+            Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
+        } while (is.read() != -1);
+        if (id == -1) {
+            statusRef.set(Status.STATUS_ROLLEDBACK);
+        } else if (id == Protocol.P_UT_IS_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerIllegalStateException();
+        } else if (id == Protocol.P_UT_SYS_EXC) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.peerSystemException();
+        } else if (id == Protocol.P_SEC_EXC) {
+            statusRef.set(oldVal);
+            throw Log.log.peerSecurityException();
+        } else {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.unknownResponse();
+        }
+    }
+
+    private void writeRequest(final Invocation invocation, final int msgId) throws SystemException {
+        final InvocationTracker invocationTracker = channel.getInvocationTracker();
+        try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
+            os.writeShort(invocation.getIndex());
+            os.writeByte(msgId);
+            Protocol.writeParam(Protocol.P_TXN_CONTEXT, os, id, Protocol.UNSIGNED);
+            final int peerIdentityId = channel.getConnection().getPeerIdentityId();
+            if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
+        } catch (IOException | AuthenticationException e) {
+            statusRef.set(Status.STATUS_UNKNOWN);
+            throw Log.log.failedToSend(e);
+        }
+    }
+
+    private CompletionStage<Void> invokeAsync(final int msgId, final int transitionalStatus, final ResponseReader reader, final Executor executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final InvocationTracker invocationTracker = channel.getInvocationTracker();
+        final CallbackInvocation invocation = invocationTracker.addInvocation(index -> new CallbackInvocation(index, new CallbackInvocation.Callback() {
+            public void handleResponse(final MessageInputStream inputStream) {
+                // the response is read here, before the message is released; only the completion is handed off
+                Throwable problem = null;
+                try {
+                    reader.read(inputStream);
                 } catch (IOException e) {
-                    // failed to close the response, but we don't care too much
-                    Log.log.inboundException(e);
+                    statusRef.set(Status.STATUS_UNKNOWN);
+                    problem = Log.log.responseFailed(e);
+                } catch (Throwable t) {
+                    problem = t;
                 }
-            } finally {
-                statusRef.compareAndSet(Status.STATUS_ROLLING_BACK, Status.STATUS_UNKNOWN);
+                complete(future, problem, transitionalStatus, executor);
             }
+
+            public void handleFailure(final IOException cause) {
+                statusRef.set(Status.STATUS_UNKNOWN);
+                complete(future, Log.log.responseFailed(cause), transitionalStatus, executor);
+            }
+        }));
+        try {
+            writeRequest(invocation, msgId);
+        } catch (SystemException e) {
+            invocationTracker.remove(invocation);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void complete(final CompletableFuture<Void> future, final Throwable problem, final int transitionalStatus, final Executor executor) {
+        statusRef.compareAndSet(transitionalStatus, Status.STATUS_UNKNOWN);
+        // dependent stages may block, so they must not run on the thread delivering the response
+        final Runnable task = problem == null ? () -> future.complete(null) : () -> future.completeExceptionally(problem);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
         }
     }
 
+    interface ResponseReader {
+        void read(MessageInputStream is) throws Exception;
+    }
+
     public void setRollbackOnly() throws SystemException {
         final AtomicInteger statusRef = this.statusRef;
-        int oldVal = statusRef.get();
-        if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
-            return;
-        } else if (oldVal != Status.STATUS_ACTIVE) {
-            throw Log.log.invalidTxnState();
-        }
-        synchronized (statusRef) {
-            // re-check under lock
+        int oldVal;
+        do {
             oldVal = statusRef.get();
             if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
                 return;
             } else if (oldVal != Status.STATUS_ACTIVE) {
                 throw Log.log.invalidTxnState();
             }
-            statusRef.set(Status.STATUS_MARKED_ROLLBACK);
-        }
+        } while (! statusRef.compareAndSet(Status.STATUS_ACTIVE, Status.STATUS_MARKED_ROLLBACK));
     }
 
     public <T> T getProviderInterface(final Class<T> type) {
@@ -37,6 +37,7 @@ import org.wildfly.transaction.client._private.Log;
 import org.wildfly.transaction.client.spi.RemoteTransactionPeer;
 import org.wildfly.transaction.client.spi.SimpleTransactionControl;
 import org.wildfly.transaction.client.spi.SubordinateTransactionControl;
+import org.xnio.IoFuture;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -92,6 +93,20 @@ class RemotingRemoteTransactionPeer implements RemoteTransactionPeer {
         return operations;
     }
 
+    public String getNodeName() {
+        // only consult a connection which is already established, so that the check never waits on the network;
+        // the remote endpoint name is expected to be configured to match the peer's transaction manager node identifier
+        final IoFuture<Connection> future = endpoint.getConnection(location, "jta", "jboss");
+        if (future.getStatus() != IoFuture.Status.DONE) {
+            return null;
+        }
+        try {
+            return future.get().getRemoteEndpointName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     RemotingOperations getOperationsXA() throws XAException {
         try {
             return getOperations();
@@ -104,52 +119,60 @@ class RemotingRemoteTransactionPeer implements RemoteTransactionPeer {
     public SubordinateTransactionControl lookupXid(final Xid xid, final int remainingTimeout) throws XAException {
         return new SubordinateTransactionControl() {
             public void rollback() throws XAException {
-                try {
-                    getOperationsXA().rollback(xid);
-                } finally {
-                    rollbackOnlyXids.remove(xid);
-                }
+                // rolling back anyway, so a pending rollback-only mark need never be sent
+                rollbackOnlyXids.remove(xid);
+                getOperationsXA().rollback(xid);
+            }
+
+            public void rollbackAsync() throws XAException {
+                rollbackOnlyXids.remove(xid);
+                getOperationsXA().rollbackAsync(xid);
+            }
+
+            public void setRollbackOnlyAsync() throws XAException {
+                // supersedes any pending mark from a failed end()
+                rollbackOnlyXids.remove(xid);
+                getOperationsXA().setRollbackOnlyAsync(xid);
             }
 
             public void end(final int flags) throws XAException {
-                if (flags == XAResource.TMFAIL && rollbackOnlyXids.add(xid)) try {
-                    getOperationsXA().setRollbackOnly(xid);
-                } catch (Throwable t) {
-                    rollbackOnlyXids.remove(xid);
-                    throw t;
-                }
+                // a failed branch is nearly always rolled back next, so defer the mark rather than paying a round trip
+                if (flags == XAResource.TMFAIL) rollbackOnlyXids.add(xid);
             }
 
             public void beforeCompletion() throws XAException {
+                flushRollbackOnly(xid);
                 getOperationsXA().beforeCompletion(xid);
             }
 
+            public boolean beforeCompletionReadOnly() throws XAException {
+                flushRollbackOnly(xid);
+                return getOperationsXA().beforeCompletionReadOnly(xid);
+            }
+
             public int prepare() throws XAException {
-                try {
-                    return getOperationsXA().prepare(xid);
-                } finally {
-                    rollbackOnlyXids.remove(xid);
-                }
+                flushRollbackOnly(xid);
+                return getOperationsXA().prepare(xid, remainingTimeout);
             }
 
             public void forget() throws XAException {
-                try {
-                    getOperationsXA().forget(xid);
-                } finally {
-                    rollbackOnlyXids.remove(xid);
-                }
+                rollbackOnlyXids.remove(xid);
+                getOperationsXA().forget(xid);
             }
 
             public void commit(final boolean onePhase) throws XAException {
-                try {
-                    getOperationsXA().commit(xid, onePhase);
-                } finally {
-                    rollbackOnlyXids.remove(xid);
-                }
+                flushRollbackOnly(xid);
+                getOperationsXA().commit(xid, onePhase);
             }
         };
     }
 
+    private void flushRollbackOnly(final Xid xid) throws XAException {
+        if (rollbackOnlyXids.remove(xid)) {
+            getOperationsXA().setRollbackOnly(xid);
+        }
+    }
+
     @NotNull
     public Xid[] recover(final int flag, final String parentName) throws XAException {
         return getOperationsXA().recover(flag, parentName);
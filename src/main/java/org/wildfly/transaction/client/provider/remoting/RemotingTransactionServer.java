@@ -21,10 +21,22 @@ package org.wildfly.transaction.client.provider.remoting;
 import static org.wildfly.transaction.client._private.Log.log;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
 
 import org.jboss.remoting3.Channel;
 import org.jboss.remoting3.Connection;
@@ -32,7 +44,11 @@ import org.jboss.remoting3._private.IntIndexHashMap;
 import org.jboss.remoting3._private.IntIndexMap;
 import org.wildfly.common.annotation.NotNull;
 import org.wildfly.common.function.ExceptionSupplier;
+import org.wildfly.transaction.client.ImportResult;
 import org.wildfly.transaction.client.LocalTransaction;
+import org.wildfly.transaction.client.SimpleXid;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
 
 /**
  * The per-connection transaction server.  This can be used to resolve a local transaction for a given transaction ID.
@@ -40,10 +56,16 @@ import org.wildfly.transaction.client.LocalTransaction;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class RemotingTransactionServer {
+    private static final int REAPED_ID_CACHE_SIZE = 256;
 
     private final RemotingTransactionService transactionService;
     private final Connection connection;
     private final IntIndexMap<LocalTxn> txns = new IntIndexHashMap<LocalTxn>(LocalTxn::getId);
+    private final AtomicBoolean reaping = new AtomicBoolean();
+    private final AtomicLong reapedCount = new AtomicLong();
+    private final RecentIdCache reapedIds = new RecentIdCache(REAPED_ID_CACHE_SIZE);
+    private volatile XnioExecutor.Key reaperKey;
+    private final AtomicReference<TransactionServerChannel> notificationChannel = new AtomicReference<>();
 
     RemotingTransactionServer(final RemotingTransactionService transactionService, final Connection connection) {
         this.transactionService = transactionService;
@@ -51,6 +73,21 @@ public final class RemotingTransactionServer {
         connection.addCloseHandler(this::handleClosed);
     }
 
+    void startReaper() {
+        final int interval = transactionService.getReaperInterval();
+        if (interval > 0) {
+            final XnioWorker worker = connection.getEndpoint().getXnioWorker();
+            // the timer fires on an I/O thread, so hand the scan itself off to a worker thread
+            reaperKey = worker.getIoThread().executeAtInterval(() -> {
+                try {
+                    worker.execute(this::reap);
+                } catch (RejectedExecutionException e) {
+                    log.trace("Transaction reaper task was rejected", e);
+                }
+            }, interval, TimeUnit.SECONDS);
+        }
+    }
+
     @NotNull
     public LocalTransaction requireTransaction(int id) throws SystemException {
         final LocalTxn txn = txns.get(id);
@@ -74,6 +111,7 @@ public final class RemotingTransactionServer {
                 return appearing.getTransaction();
             }
             ok = true;
+            watch(transaction, channel -> channel.notifyRolledBack(id));
             return transaction;
         } finally {
             if (! ok) {
@@ -82,21 +120,185 @@ public final class RemotingTransactionServer {
         }
     }
 
+    /**
+     * Find or import the transaction with the given XID on behalf of the peer of this connection.  If the peer asked for
+     * notifications, it is notified should a transaction imported here be rolled back because it timed out.
+     *
+     * @param xid the transaction XID (must not be {@code null})
+     * @param timeout the transaction timeout to use, if new
+     * @return the transaction import result (not {@code null})
+     * @throws XAException if the transaction could not be imported
+     */
+    @NotNull
+    public ImportResult<LocalTransaction> getOrImportTransaction(Xid xid, int timeout) throws XAException {
+        final ImportResult<LocalTransaction> result = transactionService.getTransactionContext().findOrImportTransaction(xid, timeout);
+        if (result.isNew()) {
+            final SimpleXid gtid = SimpleXid.of(xid).withoutBranch();
+            watch(result.getTransaction(), channel -> channel.notifyRolledBack(gtid));
+        }
+        return result;
+    }
+
+    private void watch(final LocalTransaction transaction, final Consumer<TransactionServerChannel> notification) {
+        final int timeout = transaction.getTransactionTimeout();
+        if (notificationChannel.get() == null || timeout == 0) {
+            return;
+        }
+        try {
+            transaction.registerSynchronization(new TimeoutNotifier(System.nanoTime() + TimeUnit.SECONDS.toNanos(transaction.getEstimatedRemainingTime()), notification));
+        } catch (RollbackException | SystemException | IllegalStateException e) {
+            log.trace("Failed to register transaction timeout notification", e);
+        }
+    }
+
+    void setNotificationChannel(final TransactionServerChannel notificationChannel) {
+        this.notificationChannel.set(notificationChannel);
+    }
+
+    void clearNotificationChannel(final TransactionServerChannel notificationChannel) {
+        this.notificationChannel.compareAndSet(notificationChannel, null);
+    }
+
     public LocalTransaction getTransactionIfExists(int id) {
         final LocalTxn txn = txns.get(id);
         return txn == null ? null : txn.getTransaction();
     }
 
+    void reap() {
+        if (! reaping.compareAndSet(false, true)) {
+            // previous scan is still running
+            return;
+        }
+        try {
+            int reaped = 0;
+            for (LocalTxn txn : txns) {
+                if (txn.isClaimed()) {
+                    continue;
+                }
+                final LocalTransaction transaction = txn.getTransaction();
+                final int status;
+                try {
+                    status = transaction.getStatus();
+                } catch (SystemException e) {
+                    log.trace("Failed to get transaction status during reap", e);
+                    continue;
+                }
+                switch (status) {
+                    case Status.STATUS_ACTIVE:
+                    case Status.STATUS_MARKED_ROLLBACK: {
+                        final int timeout = transaction.getTransactionTimeout();
+                        if (timeout == 0 || transaction.getEstimatedRemainingTime() > 0) {
+                            // still live
+                            break;
+                        }
+                        if (txn.claim()) {
+                            reaped ++;
+                            try {
+                                transaction.rollback();
+                            } catch (SystemException | RuntimeException e) {
+                                log.trace("Got exception during rollback of reaped transaction", e);
+                            }
+                            release(txn, true);
+                        }
+                        break;
+                    }
+                    case Status.STATUS_ROLLEDBACK: {
+                        // rolled back locally (e.g. by the TM reaper), but never released by the client
+                        if (txn.claim()) {
+                            reaped ++;
+                            release(txn, true);
+                        }
+                        break;
+                    }
+                    case Status.STATUS_COMMITTED:
+                    case Status.STATUS_UNKNOWN:
+                    case Status.STATUS_NO_TRANSACTION: {
+                        // completed without the client releasing it
+                        if (txn.claim()) {
+                            reaped ++;
+                            release(txn, false);
+                        }
+                        break;
+                    }
+                    default: {
+                        // completion in progress
+                        break;
+                    }
+                }
+            }
+            if (reaped > 0) {
+                reapedCount.addAndGet(reaped);
+                transactionService.transactionsReaped(reaped);
+                log.tracef("Reaped %d abandoned transaction(s) on connection %s", Integer.valueOf(reaped), connection);
+            }
+        } finally {
+            reaping.set(false);
+        }
+    }
+
+    private void release(final LocalTxn txn, final boolean rolledBack) {
+        if (rolledBack) {
+            // recorded before removal, so that a commit which no longer finds the entry is still answered with a rollback
+            reapedIds.add(txn.getId());
+        }
+        txns.remove(txn);
+    }
+
+    /**
+     * Determine whether the transaction with the given context ID was rolled back and released by the reaper.
+     *
+     * @param id the context ID
+     * @return {@code true} if the transaction was reaped, {@code false} if it is unknown
+     */
+    boolean wasReaped(int id) {
+        return reapedIds.contains(id);
+    }
+
+    /**
+     * Get the number of remote user transactions currently tracked by this server.
+     *
+     * @return the number of tracked transactions
+     */
+    public int getTransactionCount() {
+        return txns.size();
+    }
+
+    /**
+     * Get the number of abandoned remote user transactions which have been reaped on this connection.
+     *
+     * @return the number of reaped transactions
+     */
+    public long getReapedTransactionCount() {
+        return reapedCount.get();
+    }
+
     void handleClosed(Connection connection, IOException ignored) {
-        for (LocalTxn txn : txns) {
-            safeRollback(txn.getTransaction());
+        final XnioExecutor.Key reaperKey = this.reaperKey;
+        if (reaperKey != null) {
+            reaperKey.remove();
+        }
+        final int size = txns.size();
+        if (size == 0) {
+            return;
+        }
+        // roll back on a bounded number of tasks so that the close handler thread is not tied up
+        final int tasks = Math.min(size, transactionService.getRollbackParallelism());
+        final Executor executor = transactionService.getRollbackExecutor();
+        final DisconnectRollback rollback = new DisconnectRollback(tasks);
+        for (int i = 0; i < tasks; i ++) {
+            try {
+                executor.execute(rollback);
+            } catch (RejectedExecutionException e) {
+                log.trace("Disconnect rollback task was rejected; rolling back inline", e);
+                rollback.run();
+            }
         }
     }
 
     static void safeRollback(final Transaction transaction) {
         if (transaction != null) try {
             transaction.rollback();
-        } catch (SystemException e) {
+        } catch (SystemException | RuntimeException e) {
             log.trace("Got exception during rollback-on-disconnect", e);
         }
     }
@@ -120,11 +322,65 @@ public final class RemotingTransactionServer {
         return transactionServerChannel;
     }
 
+    final class DisconnectRollback implements Runnable {
+        private final long start = System.nanoTime();
+        private final AtomicInteger remainingTasks;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DisconnectRollback(final int tasks) {
+            remainingTasks = new AtomicInteger(tasks);
+        }
+
+        public void run() {
+            try {
+                // every task walks the same map; whoever removes an entry owns its rollback
+                for (LocalTxn txn : txns) {
+                    if (txns.remove(txn) && txn.claim()) {
+                        safeRollback(txn.getTransaction());
+                        count.incrementAndGet();
+                    }
+                }
+            } finally {
+                if (remainingTasks.decrementAndGet() == 0) {
+                    log.disconnectRollbackComplete(count.get(), connection.getPeerURI(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        }
+    }
+
+    final class TimeoutNotifier implements Synchronization {
+        private final long deadline;
+        private final Consumer<TransactionServerChannel> notification;
+
+        TimeoutNotifier(final long deadline, final Consumer<TransactionServerChannel> notification) {
+            this.deadline = deadline;
+            this.notification = notification;
+        }
+
+        public void beforeCompletion() {
+        }
+
+        public void afterCompletion(final int status) {
+            // a rollback before the deadline was asked for by the peer, so it already knows
+            if (status == Status.STATUS_ROLLEDBACK && System.nanoTime() - deadline >= 0) {
+                final TransactionServerChannel channel = notificationChannel.get();
+                if (channel != null) try {
+                    // sending may wait for the channel, so keep it off the transaction manager's thread
+                    connection.getEndpoint().getXnioWorker().execute(() -> notification.accept(channel));
+                } catch (RejectedExecutionException e) {
+                    log.trace("Transaction timeout notification was rejected", e);
+                }
+            }
+        }
+    }
+
     // tracked transactions
 
     static final class LocalTxn {
         private final LocalTransaction transaction;
         private final int id;
+        // set by whoever takes responsibility for completing the transaction: the client, the reaper or a disconnect
+        private final AtomicBoolean claimed = new AtomicBoolean();
 
         LocalTxn(final int id, final LocalTransaction transaction) {
             this.id = id;
@@ -142,5 +398,13 @@ public final class RemotingTransactionServer {
         int getId() {
             return id;
         }
+
+        boolean isClaimed() {
+            return claimed.get();
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
     }
 }
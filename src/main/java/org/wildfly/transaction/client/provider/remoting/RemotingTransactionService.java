@@ -18,6 +18,9 @@
 
 package org.wildfly.transaction.client.provider.remoting;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.jboss.remoting3.Attachments;
 import org.jboss.remoting3.Channel;
 import org.jboss.remoting3.Connection;
@@ -25,6 +28,7 @@ import org.jboss.remoting3.Endpoint;
 import org.jboss.remoting3.OpenListener;
 import org.jboss.remoting3.Registration;
 import org.jboss.remoting3.ServiceRegistrationException;
+import org.wildfly.common.Assert;
 import org.wildfly.transaction.client.LocalTransactionContext;
 import org.wildfly.transaction.client._private.Log;
 import org.xnio.OptionMap;
@@ -37,11 +41,20 @@ import org.xnio.OptionMap;
 public final class RemotingTransactionService {
     private final Endpoint endpoint;
     private final LocalTransactionContext transactionContext;
+    private final int reaperInterval;
+    private final Executor rollbackExecutor;
+    private final int rollbackParallelism;
+    private final LongAdder reapedCount = new LongAdder();
+    private final RecentGtidCache completedGtids = new RecentGtidCache(COMPLETED_GTID_CACHE_SIZE);
+    private static final int COMPLETED_GTID_CACHE_SIZE = 1024;
     private static final Attachments.Key<RemotingTransactionServer> KEY = new Attachments.Key<>(RemotingTransactionServer.class);
 
-    RemotingTransactionService(final Endpoint endpoint, final LocalTransactionContext transactionContext) {
+    RemotingTransactionService(final Endpoint endpoint, final LocalTransactionContext transactionContext, final int reaperInterval, final Executor rollbackExecutor, final int rollbackParallelism) {
         this.endpoint = endpoint;
         this.transactionContext = transactionContext;
+        this.reaperInterval = reaperInterval;
+        this.rollbackExecutor = rollbackExecutor;
+        this.rollbackParallelism = rollbackParallelism;
     }
 
     public Registration register() throws ServiceRegistrationException {
@@ -67,6 +80,8 @@ public final class RemotingTransactionService {
             RemotingTransactionServer appearing = attachments.attachIfAbsent(KEY, server);
             if (appearing != null) {
                 server = appearing;
+            } else {
+                server.startReaper();
             }
         }
         return server;
@@ -81,10 +96,40 @@ public final class RemotingTransactionService {
         return transactionContext;
     }
 
+    /**
+     * Get the total number of abandoned remote user transactions which have been reaped across all connections of this
+     * service.
+     *
+     * @return the number of reaped transactions
+     */
+    public long getReapedTransactionCount() {
+        return reapedCount.sum();
+    }
+
     Endpoint getEndpoint() {
         return endpoint;
     }
 
+    int getReaperInterval() {
+        return reaperInterval;
+    }
+
+    Executor getRollbackExecutor() {
+        return rollbackExecutor;
+    }
+
+    int getRollbackParallelism() {
+        return rollbackParallelism;
+    }
+
+    RecentGtidCache getCompletedGtids() {
+        return completedGtids;
+    }
+
+    void transactionsReaped(int count) {
+        reapedCount.add(count);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -92,6 +137,9 @@ public final class RemotingTransactionService {
     public static final class Builder {
         private Endpoint endpoint;
         private LocalTransactionContext transactionContext;
+        private int reaperInterval = 60;
+        private Executor rollbackExecutor;
+        private int rollbackParallelism = 8;
 
         Builder() {
         }
@@ -106,12 +154,56 @@ public final class RemotingTransactionService {
             return this;
         }
 
+        /**
+         * Set the interval, in seconds, at which each connection scans for abandoned remote user transactions.  A
+         * transaction is reaped if it completed without the client releasing it or if it has outlived its timeout;
+         * reaped transactions which are still active are rolled back.  Reaped transactions are released, but the IDs of
+         * recently reaped ones are remembered so that a late commit is answered with a rollback.  A value of 0 disables
+         * the reaper.
+         *
+         * @param reaperInterval the reaper interval, in seconds
+         * @return this builder
+         */
+        public Builder setReaperInterval(final int reaperInterval) {
+            Assert.checkMinimumParameter("reaperInterval", 0, reaperInterval);
+            this.reaperInterval = reaperInterval;
+            return this;
+        }
+
+        /**
+         * Set the executor used to roll back the outstanding transactions of a connection which has closed.  If not
+         * set, the endpoint's XNIO worker is used.
+         *
+         * @param rollbackExecutor the rollback executor (must not be {@code null})
+         * @return this builder
+         */
+        public Builder setRollbackExecutor(final Executor rollbackExecutor) {
+            Assert.checkNotNullParam("rollbackExecutor", rollbackExecutor);
+            this.rollbackExecutor = rollbackExecutor;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of tasks which may concurrently roll back the outstanding transactions of a single
+         * closed connection.  The value must be no less than one.
+         *
+         * @param rollbackParallelism the maximum number of concurrent rollback tasks per connection
+         * @return this builder
+         */
+        public Builder setRollbackParallelism(final int rollbackParallelism) {
+            Assert.checkMinimumParameter("rollbackParallelism", 1, rollbackParallelism);
+            this.rollbackParallelism = rollbackParallelism;
+            return this;
+        }
+
         public RemotingTransactionService build() {
             Endpoint endpoint = this.endpoint;
             if (endpoint == null) endpoint = Endpoint.getCurrent();
             LocalTransactionContext transactionContext = this.transactionContext;
             if (transactionContext == null) transactionContext = LocalTransactionContext.getCurrent();
-            return new RemotingTransactionService(endpoint, transactionContext);
+            Executor rollbackExecutor = this.rollbackExecutor;
+            if (rollbackExecutor == null) rollbackExecutor = endpoint.getXnioWorker();
+            return new RemotingTransactionService(endpoint, transactionContext, reaperInterval, rollbackExecutor, rollbackParallelism);
         }
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import static org.xnio.IoUtils.safeClose;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.ChannelClosedException;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.util.Invocation;
+
+/**
+ * An invocation whose response is waited for with a time limit.  Once the wait has given up, a late response is
+ * discarded.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class TimedInvocation extends Invocation {
+    private MessageInputStream inputStream;
+    private boolean done;
+    private boolean cancelled;
+
+    TimedInvocation(final int index) {
+        super(index);
+    }
+
+    public void handleResponse(final int parameter, final MessageInputStream inputStream) {
+        synchronized (this) {
+            if (! cancelled) {
+                this.inputStream = inputStream;
+                done = true;
+                notifyAll();
+                return;
+            }
+        }
+        safeClose(inputStream);
+    }
+
+    public void handleClosed() {
+        synchronized (this) {
+            done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the response.
+     *
+     * @param timeout the maximum time to wait, in nanoseconds, or 0 to wait indefinitely
+     * @return the response, or {@code null} if the time limit expired (in which case the invocation is cancelled)
+     * @throws InterruptedException if the wait was interrupted (in which case the invocation is cancelled)
+     */
+    synchronized Response getResponse(final long timeout) throws InterruptedException {
+        final long start = System.nanoTime();
+        long remaining = timeout;
+        try {
+            while (! done) {
+                if (timeout == 0) {
+                    wait();
+                } else if (remaining <= 0) {
+                    cancelled = true;
+                    return null;
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    remaining = timeout - (System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            throw e;
+        }
+        return new Response(inputStream);
+    }
+
+    static final class Response implements Closeable {
+        private final MessageInputStream inputStream;
+
+        Response(final MessageInputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        MessageInputStream getInputStream() throws IOException {
+            final MessageInputStream inputStream = this.inputStream;
+            if (inputStream == null) {
+                throw new ChannelClosedException("Channel was closed");
+            }
+            return inputStream;
+        }
+
+        public void close() throws IOException {
+            final MessageInputStream inputStream = this.inputStream;
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+}
@@ -18,12 +18,18 @@
 
 package org.wildfly.transaction.client.provider.remoting;
 
+import static java.security.AccessController.doPrivileged;
 import static org.xnio.IoUtils.safeClose;
 
 import java.io.IOException;
 import java.net.URI;
+import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.SystemException;
 import javax.transaction.xa.XAException;
@@ -37,11 +43,11 @@ import org.jboss.remoting3.MessageInputStream;
 import org.jboss.remoting3.MessageOutputStream;
 import org.jboss.remoting3._private.IntIndexHashMap;
 import org.jboss.remoting3._private.IntIndexMap;
-import org.jboss.remoting3.util.BlockingInvocation;
 import org.jboss.remoting3.util.InvocationTracker;
 import org.jboss.remoting3.util.StreamUtils;
 import org.wildfly.common.annotation.NotNull;
 import org.wildfly.security.auth.AuthenticationException;
+import org.wildfly.transaction.client.RemoteTransactionContext;
 import org.wildfly.transaction.client.SimpleXid;
 import org.wildfly.transaction.client._private.Log;
 import org.wildfly.transaction.client.spi.SimpleTransactionControl;
@@ -58,6 +64,14 @@ final class TransactionClientChannel implements RemotingOperations {
     private final InvocationTracker invocationTracker;
     private final IntIndexMap<RemotingRemoteTransactionHandle> peerTransactionMap = new IntIndexHashMap<RemotingRemoteTransactionHandle>(RemotingRemoteTransactionHandle::getId);
     private final Channel.Receiver receiver = new ReceiverImpl();
+    // never completes; its inv ID is where the peer sends notifications
+    private final DiscardingInvocation notificationInvocation;
+    // parent names for which the peer holds an unfinished recovery cursor
+    private final Set<String> openRecoveryScans = ConcurrentHashMap.newKeySet();
+
+    static final int RECOVERY_PAGE_SIZE = 256;
+    // the longest to wait for the response to an XA operation, so that a hung peer cannot hold a thread forever
+    static final long XA_OPERATION_TIMEOUT = TimeUnit.SECONDS.toNanos(doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.transaction.client.xa-operation-timeout", 300)).intValue());
 
     private static final ClientServiceHandle<TransactionClientChannel> CLIENT_SERVICE_HANDLE = new ClientServiceHandle<>("txn", TransactionClientChannel::construct);
 
@@ -65,15 +79,66 @@ final class TransactionClientChannel implements RemotingOperations {
         this.location = location;
         this.channel = channel;
         invocationTracker = new InvocationTracker(channel);
+        notificationInvocation = invocationTracker.addInvocation(DiscardingInvocation::new);
     }
 
     private static IoFuture<TransactionClientChannel> construct(final Channel channel) {
         // future protocol versions might have to negotiate a version or capabilities before proceeding
         final TransactionClientChannel clientChannel = new TransactionClientChannel(channel.getConnection().getPeerURI(), channel);
         channel.receiveMessage(clientChannel.getReceiver());
+        clientChannel.requestNotifications();
         return new FinishedIoFuture<>(clientChannel);
     }
 
+    private void requestNotifications() {
+        // the acknowledgement is not needed, since a peer which does not support notifications never sends any
+        final DiscardingInvocation invocation = invocationTracker.addInvocation(DiscardingInvocation::new);
+        try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
+            os.writeShort(invocation.getIndex());
+            os.writeByte(Protocol.M_CAPABILITY);
+            Protocol.writeParam(Protocol.P_NOTIFY, os, notificationInvocation.getIndex(), Protocol.UNSIGNED);
+        } catch (IOException e) {
+            invocationTracker.remove(invocation);
+            Log.log.outboundException(e);
+        }
+    }
+
+    void handleNotification(final MessageInputStream is) throws IOException {
+        if (is.readUnsignedByte() != Protocol.M_NOTIFY_ROLLED_BACK) {
+            // ignore unknown notifications
+            return;
+        }
+        int id;
+        while ((id = is.read()) != -1) {
+            final int len = StreamUtils.readPackedUnsignedInt32(is);
+            if (id == Protocol.P_TXN_CONTEXT) {
+                final RemotingRemoteTransactionHandle handle = peerTransactionMap.get(Protocol.readIntParam(is, len));
+                if (handle != null) {
+                    handle.rolledBackByPeer();
+                }
+            } else if (id == Protocol.P_XID) {
+                final SimpleXid gtid = Protocol.readXid(is, len).withoutBranch();
+                // marking the transaction involves the transaction manager and possibly further messages
+                try {
+                    channel.getConnection().getEndpoint().getXnioWorker().execute(() -> markRollbackOnly(gtid));
+                } catch (RejectedExecutionException e) {
+                    Log.log.inboundException(e);
+                }
+            } else {
+                Protocol.readIntParam(is, len);
+            }
+        }
+    }
+
+    private void markRollbackOnly(final SimpleXid gtid) {
+        try {
+            // only a transaction which was outflowed to this peer is affected
+            RemoteTransactionContext.rolledBackByPeer(location, gtid);
+        } catch (SystemException | IllegalStateException e) {
+            Log.log.inboundException(e);
+        }
+    }
+
     URI getLocation() {
         return location;
     }
@@ -92,7 +157,7 @@ final class TransactionClientChannel implements RemotingOperations {
 
     public void rollback(final Xid xid) throws XAException {
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -103,7 +168,7 @@ final class TransactionClientChannel implements RemotingOperations {
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_ROLLBACK) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -141,10 +206,35 @@ final class TransactionClientChannel implements RemotingOperations {
         }
     }
 
+    public void rollbackAsync(final Xid xid) throws XAException {
+        writeOneWay(Protocol.M_XA_ROLLBACK, xid);
+    }
+
+    public void setRollbackOnlyAsync(final Xid xid) throws XAException {
+        writeOneWay(Protocol.M_XA_RB_ONLY, xid);
+    }
+
+    private void writeOneWay(final int messageId, final Xid xid) throws XAException {
+        final InvocationTracker invocationTracker = getInvocationTracker();
+        // the outcome is not waited for, so the response is simply discarded when it arrives
+        final DiscardingInvocation invocation = invocationTracker.addInvocation(DiscardingInvocation::new);
+        // write request
+        try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
+            os.writeShort(invocation.getIndex());
+            os.writeByte(messageId);
+            Protocol.writeParam(Protocol.P_XID, os, xid);
+            final int peerIdentityId = channel.getConnection().getPeerIdentityId();
+            if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
+        } catch (IOException | AuthenticationException e) {
+            invocationTracker.remove(invocation);
+            throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
+        }
+    }
+
     public void setRollbackOnly(final Xid xid) throws XAException {
         // write rollback-only request
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -155,7 +245,7 @@ final class TransactionClientChannel implements RemotingOperations {
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_ROLLBACK) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -194,8 +284,13 @@ final class TransactionClientChannel implements RemotingOperations {
     }
 
     public void beforeCompletion(final Xid xid) throws XAException {
+        beforeCompletionReadOnly(xid);
+    }
+
+    public boolean beforeCompletionReadOnly(final Xid xid) throws XAException {
+        boolean readOnly = false;
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -203,10 +298,12 @@ final class TransactionClientChannel implements RemotingOperations {
             Protocol.writeParam(Protocol.P_XID, os, xid);
             final int peerIdentityId = channel.getConnection().getPeerIdentityId();
             if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
+            // tell the peer that we understand an early read-only outcome
+            Protocol.writeParam(Protocol.P_XA_RDONLY, os);
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_BEFORE) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -218,6 +315,8 @@ final class TransactionClientChannel implements RemotingOperations {
                     error = Protocol.readIntParam(is, StreamUtils.readPackedSignedInt32(is));
                 } else if (id == Protocol.P_SEC_EXC) {
                     sec = true;
+                } else if (id == Protocol.P_XA_RDONLY) {
+                    readOnly = true;
                 }
                 if (id != -1) do {
                     // skip content
@@ -239,12 +338,17 @@ final class TransactionClientChannel implements RemotingOperations {
             // failed to close the response, but we don't care too much
             Log.log.inboundException(e);
         }
+        return readOnly;
     }
 
     public int prepare(final Xid xid) throws XAException {
+        return prepare(xid, 0);
+    }
+
+    public int prepare(final Xid xid, final int remainingTimeout) throws XAException {
         boolean readOnly = false;
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -252,10 +356,11 @@ final class TransactionClientChannel implements RemotingOperations {
             Protocol.writeParam(Protocol.P_XID, os, xid);
             final int peerIdentityId = channel.getConnection().getPeerIdentityId();
             if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
+            if (remainingTimeout != 0) Protocol.writeParam(Protocol.P_TXN_TIMEOUT, os, remainingTimeout, Protocol.UNSIGNED);
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_PREPARE) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -295,7 +400,7 @@ final class TransactionClientChannel implements RemotingOperations {
 
     public void forget(final Xid xid) throws XAException {
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -306,7 +411,7 @@ final class TransactionClientChannel implements RemotingOperations {
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_FORGET) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -343,7 +448,7 @@ final class TransactionClientChannel implements RemotingOperations {
 
     public void commit(final Xid xid, final boolean onePhase) throws XAException {
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -355,7 +460,7 @@ final class TransactionClientChannel implements RemotingOperations {
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, onePhase ? XAException.XAER_RMFAIL : XAException.XA_RETRY)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_COMMIT) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -392,11 +497,43 @@ final class TransactionClientChannel implements RemotingOperations {
 
     @NotNull
     public Xid[] recover(final int flag, final String parentName) throws XAException {
-        if (flag != XAResource.TMSTARTRSCAN) {
-            return SimpleXid.NO_XIDS;
+        final String key = parentName == null ? "" : parentName;
+        final ArrayList<Xid> recoveryList = new ArrayList<>();
+        boolean more;
+        try {
+            if ((flag & XAResource.TMSTARTRSCAN) != 0) {
+                more = recoverPage(XAResource.TMSTARTRSCAN, parentName, recoveryList);
+            } else if (! openRecoveryScans.contains(key)) {
+                // no scan in progress (or the peer returned everything at once)
+                return SimpleXid.NO_XIDS;
+            } else if ((flag & XAResource.TMENDRSCAN) != 0) {
+                // the caller is ending the scan early; the peer returns one last page and discards its cursor
+                more = recoverPage(XAResource.TMENDRSCAN, parentName, recoveryList);
+            } else {
+                more = recoverPage(XAResource.TMNOFLAGS, parentName, recoveryList);
+            }
+            if ((flag & XAResource.TMSTARTRSCAN) != 0 && (flag & XAResource.TMENDRSCAN) != 0) {
+                // a single-call scan, so the caller will not ask again; drain the peer's cursor
+                while (more) {
+                    more = recoverPage(XAResource.TMNOFLAGS, parentName, recoveryList);
+                }
+            }
+        } catch (XAException e) {
+            // the peer discards its cursor on error
+            openRecoveryScans.remove(key);
+            throw e;
+        }
+        if (more) {
+            openRecoveryScans.add(key);
+        } else {
+            openRecoveryScans.remove(key);
         }
+        return recoveryList.toArray(SimpleXid.NO_XIDS);
+    }
+
+    private boolean recoverPage(final int flag, final String parentName, final ArrayList<Xid> recoveryList) throws XAException {
         final InvocationTracker invocationTracker = getInvocationTracker();
-        final BlockingInvocation invocation = invocationTracker.addInvocation(BlockingInvocation::new);
+        final TimedInvocation invocation = invocationTracker.addInvocation(TimedInvocation::new);
         // write request
         try (MessageOutputStream os = invocationTracker.allocateMessage(invocation)) {
             os.writeShort(invocation.getIndex());
@@ -404,11 +541,13 @@ final class TransactionClientChannel implements RemotingOperations {
             final int peerIdentityId = channel.getConnection().getPeerIdentityId();
             if (peerIdentityId != 0) Protocol.writeParam(Protocol.P_SEC_CONTEXT, os, peerIdentityId, Protocol.UNSIGNED);
             Protocol.writeParam(Protocol.P_PARENT_NAME, os, parentName);
+            // older peers ignore these and return the whole scan without P_XA_MORE
+            Protocol.writeParam(Protocol.P_XA_FLAGS, os, flag, Protocol.UNSIGNED);
+            Protocol.writeParam(Protocol.P_XA_COUNT, os, RECOVERY_PAGE_SIZE, Protocol.UNSIGNED);
         } catch (IOException | AuthenticationException e) {
             throw Log.log.failedToSendXA(e, XAException.XAER_RMERR);
         }
-        final ArrayList<Xid> recoveryList = new ArrayList<>();
-        try (BlockingInvocation.Response response = invocation.getResponse()) {
+        try (TimedInvocation.Response response = awaitResponse(invocation, XAException.XAER_RMFAIL)) {
             try (MessageInputStream is = response.getInputStream()) {
                 if (is.readUnsignedByte() != Protocol.M_RESP_XA_RECOVER) {
                     throw Log.log.unknownResponseXa(XAException.XAER_RMERR);
@@ -416,14 +555,20 @@ final class TransactionClientChannel implements RemotingOperations {
                 int id = is.read();
                 int error = 0;
                 boolean sec = false;
+                boolean more = false;
                 for (;;) {
                     if (id == Protocol.P_XA_ERROR) {
                         error = Protocol.readIntParam(is, StreamUtils.readPackedSignedInt32(is));
                     } else if (id == Protocol.P_SEC_EXC) {
+                        Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
                         sec = true;
+                    } else if (id == Protocol.P_XA_MORE) {
+                        Protocol.readIntParam(is, StreamUtils.readPackedUnsignedInt32(is));
+                        more = true;
                     } else if (id == Protocol.P_XID) {
-                        if (error != 0 && ! sec) {
-                            recoveryList.add(Protocol.readXid(is, StreamUtils.readPackedUnsignedInt32(is)));
+                        final SimpleXid xid = Protocol.readXid(is, StreamUtils.readPackedUnsignedInt32(is));
+                        if (error == 0 && ! sec) {
+                            recoveryList.add(xid);
                         }
                     } else if (id == -1) {
                         break;
@@ -438,8 +583,8 @@ final class TransactionClientChannel implements RemotingOperations {
                 if (error != 0) {
                     throw Log.log.peerXaException(error);
                 }
+                return more;
             }
-            return recoveryList.toArray(SimpleXid.NO_XIDS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw Log.log.interruptedXA(XAException.XAER_RMERR);
@@ -448,6 +593,22 @@ final class TransactionClientChannel implements RemotingOperations {
         }
     }
 
+    private TimedInvocation.Response awaitResponse(final TimedInvocation invocation, final int timeoutErrorCode) throws InterruptedException, XAException {
+        final TimedInvocation.Response response;
+        try {
+            response = invocation.getResponse(XA_OPERATION_TIMEOUT);
+        } catch (InterruptedException e) {
+            invocationTracker.remove(invocation);
+            throw e;
+        }
+        if (response == null) {
+            // release the invocation slot; a late response is discarded
+            invocationTracker.remove(invocation);
+            throw Log.log.responseTimedOutXa(timeoutErrorCode, location);
+        }
+        return response;
+    }
+
     InvocationTracker getInvocationTracker() {
         return invocationTracker;
     }
@@ -470,6 +631,7 @@ final class TransactionClientChannel implements RemotingOperations {
         }
 
         public void handleEnd(final Channel channel) {
+            openRecoveryScans.clear();
             for (RemotingRemoteTransactionHandle transaction : peerTransactionMap) {
                 transaction.disconnect();
             }
@@ -486,6 +648,14 @@ final class TransactionClientChannel implements RemotingOperations {
                     Log.log.inboundException(e);
                     return;
                 }
+                if (invId == notificationInvocation.getIndex()) {
+                    try {
+                        handleNotification(message);
+                    } catch (IOException e) {
+                        Log.log.inboundException(e);
+                    }
+                    return;
+                }
                 invocationTracker.signalResponse(invId, 0, message, true);
             } finally {
                 safeClose(message);
@@ -23,8 +23,9 @@ import static org.wildfly.transaction.client.provider.remoting.Protocol.*;
 import static org.wildfly.transaction.client.provider.remoting.RemotingTransactionServer.*;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
@@ -43,9 +44,12 @@ import org.jboss.remoting3.RemotingOptions;
 import org.jboss.remoting3.util.MessageTracker;
 import org.jboss.remoting3.util.StreamUtils;
 import org.wildfly.security.auth.server.SecurityIdentity;
+import org.wildfly.transaction.client.ImportResult;
+import org.wildfly.transaction.client.LocalTransaction;
 import org.wildfly.transaction.client.LocalTransactionContext;
 import org.wildfly.transaction.client.SimpleXid;
 import org.wildfly.transaction.client.XARecoverable;
+import org.wildfly.transaction.client.spi.SubordinateTransactionControl;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -56,6 +60,15 @@ final class TransactionServerChannel {
     private final Channel channel;
     private final Channel.Receiver receiver = new ReceiverImpl();
     private final LocalTransactionContext localTransactionContext;
+    private final RecentGtidCache completedGtids;
+    // the inv ID which the client reserved for notifications, or -1 if it did not ask for them
+    private volatile int notificationId = -1;
+    // recovery cursors by parent name; all access is guarded by the map itself
+    private final Map<String, RecoveryCursor> recoveryCursors = new HashMap<>();
+
+    static final int MAX_RECOVERY_PAGE = 1024;
+    // upper bound on scan requests per recovery pass, for transaction managers which never stop returning XIDs
+    static final int MAX_RECOVERY_PASSES = 256;
 
     private static final Attachments.Key<TransactionServerChannel> KEY = new Attachments.Key<>(TransactionServerChannel.class);
 
@@ -63,6 +76,7 @@ final class TransactionServerChannel {
         this.server = server;
         this.channel = channel;
         this.localTransactionContext = localTransactionContext;
+        completedGtids = server.getTransactionService().getCompletedGtids();
         messageTracker = new MessageTracker(channel, channel.getOption(RemotingOptions.MAX_OUTBOUND_MESSAGES).intValue());
         channel.getConnection().getAttachments().attach(KEY, this);
     }
@@ -151,23 +165,64 @@ final class TransactionServerChannel {
         }
 
         public void handleError(final Channel channel, final IOException error) {
+            handleEnd(channel);
         }
 
         public void handleEnd(final Channel channel) {
+            server.clearNotificationChannel(TransactionServerChannel.this);
+            final RecoveryCursor[] cursors;
+            synchronized (recoveryCursors) {
+                cursors = recoveryCursors.values().toArray(new RecoveryCursor[recoveryCursors.size()]);
+                recoveryCursors.clear();
+            }
+            for (RecoveryCursor cursor : cursors) {
+                cursor.close();
+            }
         }
     }
 
     void handleCapabilityMessage(final MessageInputStream message, final int invId) throws IOException {
-        while (message.read() != -1) {
-            // ignore parameters
-            readIntParam(message, StreamUtils.readPackedUnsignedInt32(message));
+        int param;
+        boolean notify = false;
+        while ((param = message.read()) != -1) {
+            final int len = StreamUtils.readPackedUnsignedInt32(message);
+            if (param == P_NOTIFY) {
+                notificationId = readIntParam(message, len);
+                notify = true;
+            } else {
+                // ignore unknown capabilities
+                readIntParam(message, len);
+            }
         }
-        // acknowledge no capabilities
+        // acknowledge the recognized capabilities
         try (final MessageOutputStream outputStream = messageTracker.openMessageUninterruptibly()) {
             outputStream.writeShort(invId);
             outputStream.writeByte(M_RESP_CAPABILITY);
+            if (notify) writeParam(P_NOTIFY, outputStream);
+        }
+        if (notify) {
+            server.setNotificationChannel(this);
+        }
+    }
+
+    void notifyRolledBack(final int context) {
+        try (final MessageOutputStream outputStream = messageTracker.openMessageUninterruptibly()) {
+            outputStream.writeShort(notificationId);
+            outputStream.writeByte(M_NOTIFY_ROLLED_BACK);
+            writeParam(P_TXN_CONTEXT, outputStream, context, UNSIGNED);
+        } catch (IOException e) {
+            log.outboundException(e);
+        }
+    }
+
+    void notifyRolledBack(final Xid gtid) {
+        try (final MessageOutputStream outputStream = messageTracker.openMessageUninterruptibly()) {
+            outputStream.writeShort(notificationId);
+            outputStream.writeByte(M_NOTIFY_ROLLED_BACK);
+            writeParam(P_XID, outputStream, gtid);
+        } catch (IOException e) {
+            log.outboundException(e);
         }
-        return;
     }
 
     void handleUserTxnRollback(final MessageInputStream message, final int invId) throws IOException {
@@ -201,7 +256,7 @@ final class TransactionServerChannel {
             return;
         }
         final LocalTxn txn = server.getTxnMap().removeKey(context);
-        if (txn == null) {
+        if (txn == null || ! txn.claim()) {
             // nothing to roll back!
             writeSimpleResponse(M_RESP_UT_ROLLBACK, invId);
             return;
@@ -258,8 +313,18 @@ final class TransactionServerChannel {
         }
         final LocalTxn txn = server.getTxnMap().removeKey(context);
         if (txn == null) {
-            // nothing to commit!
-            writeSimpleResponse(M_RESP_UT_COMMIT, invId);
+            if (server.wasReaped(context)) {
+                // the transaction timed out and was rolled back and released by the reaper
+                writeSimpleResponse(M_RESP_UT_COMMIT, invId, P_UT_RB_EXC);
+            } else {
+                // nothing to commit!
+                writeSimpleResponse(M_RESP_UT_COMMIT, invId);
+            }
+            return;
+        }
+        if (! txn.claim()) {
+            // the transaction timed out and was rolled back by the reaper
+            writeSimpleResponse(M_RESP_UT_COMMIT, invId, P_UT_RB_EXC);
             return;
         }
         SecurityIdentity securityIdentity;
@@ -293,6 +358,15 @@ final class TransactionServerChannel {
 
     /////////////////////////
 
+    private ImportResult<LocalTransaction> findTransaction(final SimpleXid gtid) throws XAException {
+        // completion requests never need a new transaction, so do not import one just to complete it
+        final ImportResult<LocalTransaction> result = localTransactionContext.findOrImportTransaction(gtid, 0, true);
+        if (result == null) {
+            throw log.noTransactionXa(XAException.XAER_NOTA);
+        }
+        return result;
+    }
+
     void handleXaTxnRollback(final MessageInputStream message, final int invId) throws IOException {
         int param;
         int len;
@@ -327,15 +401,22 @@ final class TransactionServerChannel {
         } else {
             securityIdentity = channel.getConnection().getLocalIdentity();
         }
+        final SimpleXid gtid = xid.withoutBranch();
+        if (completedGtids.contains(gtid)) {
+            // a duplicate, typically a retry after a client-side timeout
+            writeXaExceptionResponse(M_RESP_XA_ROLLBACK, invId, XAException.XAER_NOTA);
+            return;
+        }
         securityIdentity.runAsObjIntConsumer((x, i) -> {
             try {
-                localTransactionContext.findOrImportTransaction(x, 0).getControl().rollback();
+                findTransaction(x).getControl().rollback();
+                completedGtids.add(x);
                 writeSimpleResponse(M_RESP_XA_ROLLBACK, i);
             } catch (XAException e) {
                 writeXaExceptionResponse(M_RESP_XA_ROLLBACK, i, e.errorCode);
                 return;
             }
-        }, xid.withoutBranch(), invId);
+        }, gtid, invId);
     }
 
     void handleXaTxnRollbackOnly(final MessageInputStream message, final int invId) throws IOException {
@@ -372,15 +453,20 @@ final class TransactionServerChannel {
         } else {
             securityIdentity = channel.getConnection().getLocalIdentity();
         }
+        final SimpleXid gtid = xid.withoutBranch();
+        if (completedGtids.contains(gtid)) {
+            writeXaExceptionResponse(M_RESP_XA_ROLLBACK, invId, XAException.XAER_NOTA);
+            return;
+        }
         securityIdentity.runAsObjIntConsumer((x, i) -> {
             try {
-                localTransactionContext.findOrImportTransaction(x, 0).getControl().end(XAResource.TMFAIL);
+                findTransaction(x).getControl().end(XAResource.TMFAIL);
                 writeSimpleResponse(M_RESP_XA_ROLLBACK, i);
             } catch (XAException e) {
                 writeXaExceptionResponse(M_RESP_XA_ROLLBACK, i, e.errorCode);
                 return;
             }
-        }, xid.withoutBranch(), invId);
+        }, gtid, invId);
     }
 
     void handleXaTxnBefore(final MessageInputStream message, final int invId) throws IOException {
@@ -389,6 +475,7 @@ final class TransactionServerChannel {
         SimpleXid xid = null;
         int secContext = 0;
         boolean hasSecContext = false;
+        boolean readOnlyAllowed = false;
         while ((param = message.read()) != - 1) {
             len = StreamUtils.readPackedUnsignedInt32(message);
             switch (param) {
@@ -401,6 +488,12 @@ final class TransactionServerChannel {
                     hasSecContext = true;
                     break;
                 }
+                case P_XA_RDONLY: {
+                    // older clients would go on to prepare a transaction which was already completed
+                    readOnlyAllowed = true;
+                    readIntParam(message, len);
+                    break;
+                }
                 default: {
                     // ignore bad parameter
                     readIntParam(message, len);
@@ -417,15 +510,33 @@ final class TransactionServerChannel {
         } else {
             securityIdentity = channel.getConnection().getLocalIdentity();
         }
+        final SimpleXid gtid = xid.withoutBranch();
+        if (completedGtids.contains(gtid)) {
+            writeXaExceptionResponse(M_RESP_XA_BEFORE, invId, XAException.XAER_NOTA);
+            return;
+        }
+        final boolean finalReadOnlyAllowed = readOnlyAllowed;
         securityIdentity.runAsObjIntConsumer((x, i) -> {
             try {
-                localTransactionContext.findOrImportTransaction(x, 0).getControl().beforeCompletion();
-                writeSimpleResponse(M_RESP_XA_BEFORE, i);
+                final SubordinateTransactionControl control = findTransaction(x).getControl();
+                final boolean readOnly;
+                if (finalReadOnlyAllowed) {
+                    readOnly = control.beforeCompletionReadOnly();
+                } else {
+                    control.beforeCompletion();
+                    readOnly = false;
+                }
+                if (readOnly) {
+                    completedGtids.add(x);
+                    writeSimpleResponse(M_RESP_XA_BEFORE, i, P_XA_RDONLY);
+                } else {
+                    writeSimpleResponse(M_RESP_XA_BEFORE, i);
+                }
             } catch (XAException e) {
                 writeXaExceptionResponse(M_RESP_XA_BEFORE, i, e.errorCode);
                 return;
             }
-        }, xid.withoutBranch(), invId);
+        }, gtid, invId);
     }
 
     void handleXaTxnPrepare(final MessageInputStream message, final int invId) throws IOException {
@@ -434,6 +545,7 @@ final class TransactionServerChannel {
         SimpleXid xid = null;
         int secContext = 0;
         boolean hasSecContext = false;
+        int timeout = 0;
         while ((param = message.read()) != - 1) {
             len = StreamUtils.readPackedUnsignedInt32(message);
             switch (param) {
@@ -446,6 +558,10 @@ final class TransactionServerChannel {
                     hasSecContext = true;
                     break;
                 }
+                case P_TXN_TIMEOUT: {
+                    timeout = readIntParam(message, len);
+                    break;
+                }
                 default: {
                     // ignore bad parameter
                     readIntParam(message, len);
@@ -462,17 +578,20 @@ final class TransactionServerChannel {
         } else {
             securityIdentity = channel.getConnection().getLocalIdentity();
         }
+        // a transaction imported here should time out with its coordinator rather than after the local default
+        final int finalTimeout = timeout;
         securityIdentity.runAsObjIntConsumer((x, i) -> {
             try {
-                int result = localTransactionContext.findOrImportTransaction(x, 0).getControl().prepare();
+                int result = localTransactionContext.findOrImportTransaction(x, finalTimeout).getControl().prepare();
                 if (result == XAResource.XA_RDONLY) {
-                    writeSimpleResponse(M_RESP_XA_BEFORE, i, P_XA_RDONLY);
+                    completedGtids.add(x);
+                    writeSimpleResponse(M_RESP_XA_PREPARE, i, P_XA_RDONLY);
                 } else {
                     // XA_OK
-                    writeSimpleResponse(M_RESP_XA_BEFORE, i);
+                    writeSimpleResponse(M_RESP_XA_PREPARE, i);
                 }
             } catch (XAException e) {
-                writeXaExceptionResponse(M_RESP_XA_BEFORE, i, e.errorCode);
+                writeXaExceptionResponse(M_RESP_XA_PREPARE, i, e.errorCode);
                 return;
             }
         }, xid.withoutBranch(), invId);
@@ -516,6 +635,7 @@ final class TransactionServerChannel {
         securityIdentity.runAsObjIntConsumer((x, i) -> {
             try {
                 localTransactionContext.getRecoveryInterface().forget(x);
+                completedGtids.add(x.withoutBranch());
                 writeSimpleResponse(M_RESP_XA_FORGET, i);
             } catch (XAException e) {
                 writeXaExceptionResponse(M_RESP_XA_FORGET, i, e.errorCode);
@@ -568,6 +688,7 @@ final class TransactionServerChannel {
         securityIdentity.runAsConsumer((o, x) -> {
             try {
                 localTransactionContext.getRecoveryInterface().commit(x, o.booleanValue());
+                completedGtids.add(x);
                 writeSimpleResponse(M_RESP_XA_COMMIT, invId);
             } catch (XAException e) {
                 writeXaExceptionResponse(M_RESP_XA_COMMIT, invId, e.errorCode);
@@ -581,6 +702,9 @@ final class TransactionServerChannel {
         int secContext = 0;
         String parentName = null;
         boolean hasSecContext = false;
+        int flags = 0;
+        boolean hasFlags = false;
+        int count = 0;
         while ((param = message.read()) != - 1) {
             len = StreamUtils.readPackedUnsignedInt32(message);
             switch (param) {
@@ -593,6 +717,15 @@ final class TransactionServerChannel {
                     parentName = readStringParam(message, len);
                     break;
                 }
+                case P_XA_FLAGS: {
+                    flags = readIntParam(message, len);
+                    hasFlags = true;
+                    break;
+                }
+                case P_XA_COUNT: {
+                    count = readIntParam(message, len);
+                    break;
+                }
                 default: {
                     // ignore bad parameter
                     readIntParam(message, len);
@@ -606,6 +739,12 @@ final class TransactionServerChannel {
             securityIdentity = channel.getConnection().getLocalIdentity();
         }
         final String finalParentName = parentName;
+        if (hasFlags) {
+            final int finalFlags = flags;
+            final int finalCount = count <= 0 || count > MAX_RECOVERY_PAGE ? MAX_RECOVERY_PAGE : count;
+            securityIdentity.runAs(() -> handleXaTxnRecoverPage(invId, finalParentName, finalFlags, finalCount));
+            return;
+        }
         securityIdentity.runAs(() -> {
             final XARecoverable recoverable = localTransactionContext.getRecoveryInterface();
             Xid[] xids;
@@ -621,15 +760,17 @@ final class TransactionServerChannel {
                 outputStream.writeByte(M_RESP_XA_RECOVER);
                 // maintain a "seen" set as some transaction managers don't treat recovery scanning as a cursor...
                 // once the "seen" set hasn't been modified by a scan request, the scan is done
-                Set<Xid> seen = new HashSet<Xid>();
+                final GtidSet seen = new GtidSet();
                 boolean added;
+                int passes = 0;
                 do {
                     added = false;
                     for (final Xid xid : xids) {
-                        SimpleXid simpleXid = SimpleXid.of(xid).withoutBranch();
-                        if (seen.add(simpleXid)) {
+                        final int formatId = xid.getFormatId();
+                        final byte[] gtid = xid.getGlobalTransactionId();
+                        if (seen.add(formatId, gtid)) {
                             added = true;
-                            writeParam(P_XID, outputStream, simpleXid);
+                            writeGtidParam(P_XID, outputStream, formatId, gtid);
                         }
                     }
                     if (added) try {
@@ -645,7 +786,7 @@ final class TransactionServerChannel {
                         }
                         return;
                     }
-                } while (xids.length > 0 && added);
+                } while (xids.length > 0 && added && ++ passes < MAX_RECOVERY_PASSES);
                 try {
                     xids = recoverable.recover(XAResource.TMENDRSCAN, finalParentName);
                 } catch (XAException e) {
@@ -653,9 +794,10 @@ final class TransactionServerChannel {
                     return;
                 }
                 for (final Xid xid : xids) {
-                    SimpleXid simpleXid = SimpleXid.of(xid).withoutBranch();
-                    if (seen.add(simpleXid)) {
-                        writeParam(P_XID, outputStream, xid);
+                    final int formatId = xid.getFormatId();
+                    final byte[] gtid = xid.getGlobalTransactionId();
+                    if (seen.add(formatId, gtid)) {
+                        writeGtidParam(P_XID, outputStream, formatId, gtid);
                     }
                 }
             } catch (IOException e) {
@@ -670,6 +812,160 @@ final class TransactionServerChannel {
         });
     }
 
+    void handleXaTxnRecoverPage(final int invId, final String parentName, final int flags, final int count) {
+        final String key = parentName == null ? "" : parentName;
+        final boolean startScan = allAreSet(flags, XAResource.TMSTARTRSCAN);
+        RecoveryCursor cursor;
+        // the map is only locked to look up cursors, so a slow scan does not hold up paging for other parent names
+        if (startScan) {
+            cursor = new RecoveryCursor(localTransactionContext.getRecoveryInterface(), parentName);
+            final RecoveryCursor old;
+            synchronized (recoveryCursors) {
+                old = recoveryCursors.put(key, cursor);
+            }
+            if (old != null) {
+                old.close();
+            }
+        } else {
+            synchronized (recoveryCursors) {
+                cursor = recoveryCursors.get(key);
+            }
+            if (cursor == null) {
+                writeXaExceptionResponse(M_RESP_XA_RECOVER, invId, XAException.XAER_INVAL);
+                return;
+            }
+        }
+        synchronized (cursor) {
+            if (cursor.isClosed()) {
+                // replaced by a new scan, or the channel closed
+                writeXaExceptionResponse(M_RESP_XA_RECOVER, invId, XAException.XAER_INVAL);
+                return;
+            }
+            try {
+                if (startScan) {
+                    cursor.start();
+                }
+                cursor.fill(count);
+            } catch (XAException e) {
+                discardCursor(key, cursor);
+                writeXaExceptionResponse(M_RESP_XA_RECOVER, invId, e.errorCode);
+                return;
+            }
+            try (final MessageOutputStream outputStream = messageTracker.openMessageUninterruptibly()) {
+                outputStream.writeShort(invId);
+                outputStream.writeByte(M_RESP_XA_RECOVER);
+                Xid xid;
+                for (int i = 0; i < count && (xid = cursor.poll()) != null; i ++) {
+                    writeGtidParam(P_XID, outputStream, xid.getFormatId(), xid.getGlobalTransactionId());
+                }
+                if (cursor.hasMore() && ! allAreSet(flags, XAResource.TMENDRSCAN)) {
+                    writeParam(P_XA_MORE, outputStream);
+                } else {
+                    discardCursor(key, cursor);
+                }
+            } catch (IOException e) {
+                log.outboundException(e);
+                discardCursor(key, cursor);
+            }
+        }
+    }
+
+    private void discardCursor(final String key, final RecoveryCursor cursor) {
+        synchronized (recoveryCursors) {
+            recoveryCursors.remove(key, cursor);
+        }
+        cursor.close();
+    }
+
+    static boolean allAreSet(int flags, int test) {
+        return (flags & test) == test;
+    }
+
+    /**
+     * A recovery scan in progress on behalf of a peer.  Only the response is paged: the local recovery interface may
+     * return its whole scan in one batch, which is held until it has been paged out, and the transactions already
+     * returned are remembered until the scan ends.  Only one page of results is queued at a time.  Callers must hold
+     * the cursor's monitor.
+     */
+    static final class RecoveryCursor {
+        private final XARecoverable recoverable;
+        private final String parentName;
+        private final ArrayDeque<Xid> pending = new ArrayDeque<>();
+        // some transaction managers don't treat recovery scanning as a cursor, so track what was already returned
+        private final GtidSet seen = new GtidSet();
+        private Xid[] batch = SimpleXid.NO_XIDS;
+        private int position;
+        private boolean added;
+        private boolean scanOpen;
+        private boolean closed;
+        private int passes;
+
+        RecoveryCursor(final XARecoverable recoverable, final String parentName) {
+            this.recoverable = recoverable;
+            this.parentName = parentName;
+        }
+
+        void start() throws XAException {
+            scanOpen = true;
+            setBatch(recoverable.recover(XAResource.TMSTARTRSCAN, parentName));
+            added = true;
+        }
+
+        void fill(int count) throws XAException {
+            for (;;) {
+                while (pending.size() < count && position < batch.length) {
+                    final Xid xid = batch[position ++];
+                    if (seen.add(xid)) {
+                        added = true;
+                        pending.add(xid);
+                    }
+                }
+                if (pending.size() >= count || position < batch.length || ! scanOpen) {
+                    return;
+                }
+                // once a scan request yields nothing new, the scan is done
+                if (! added || ++ passes >= MAX_RECOVERY_PASSES) {
+                    scanOpen = false;
+                    setBatch(recoverable.recover(XAResource.TMENDRSCAN, parentName));
+                } else {
+                    setBatch(recoverable.recover(XAResource.TMNOFLAGS, parentName));
+                }
+            }
+        }
+
+        private void setBatch(Xid[] xids) {
+            batch = xids;
+            position = 0;
+            added = false;
+        }
+
+        Xid poll() {
+            return pending.poll();
+        }
+
+        boolean hasMore() {
+            return scanOpen || position < batch.length || ! pending.isEmpty();
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending.clear();
+            batch = SimpleXid.NO_XIDS;
+            if (scanOpen) {
+                scanOpen = false;
+                try {
+                    recoverable.recover(XAResource.TMENDRSCAN, parentName);
+                } catch (XAException e) {
+                    log.recoverySuppressedException(e);
+                }
+            }
+        }
+    }
+
     ///////////////////////////////////////////////////////////////
 
     void writeSimpleResponse(final int msgId, final int invId, final int param1) {
@@ -29,6 +29,7 @@ import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
 import org.wildfly.common.Assert;
@@ -176,6 +177,29 @@ public interface LocalTransactionProvider extends TransactionProvider {
     @NotNull
     String getNodeName();
 
+    /**
+     * Register that the given transaction is being outflowed to a remote peer.  From this point on, the provider must be
+     * able to find the transaction by its XID, since the peer may refer back to it.  Providers which track every
+     * transaction by XID need not do anything.
+     *
+     * @param transaction the transaction (not {@code null})
+     */
+    default void registerOutflow(@NotNull Transaction transaction) {
+    }
+
+    /**
+     * Determine whether the given resource is the only resource enlisted in the given transaction, such that the
+     * transaction manager will complete it with a one-phase commit.  Providers which cannot determine this should
+     * return {@code false}.
+     *
+     * @param transaction the transaction (not {@code null})
+     * @param resource the enlisted resource (not {@code null})
+     * @return {@code true} if the resource is the only enlisted resource, {@code false} otherwise
+     */
+    default boolean isOnlyResource(@NotNull Transaction transaction, @NotNull XAResource resource) {
+        return false;
+    }
+
     /**
      * Attempt to derive a node name from an XID.  If the XID is not in a recognized format, {@code null} is returned.
      *
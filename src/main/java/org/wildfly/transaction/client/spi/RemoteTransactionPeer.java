@@ -63,6 +63,18 @@ public interface RemoteTransactionPeer {
     @NotNull
     SimpleTransactionControl begin(int timeout) throws SystemException;
 
+    /**
+     * Get the node name of this peer, if it can be determined.  A peer whose node name matches the local transaction
+     * provider's node name is the local node itself, and may be short-circuited by the caller.  The returned name must
+     * therefore be the node identifier of the peer's transaction manager (see {@link LocalTransactionProvider#getNodeName()}),
+     * and it must describe the node currently answering at this peer's location, since that may change over time.
+     *
+     * @return the peer node name, or {@code null} if it is not known
+     */
+    default String getNodeName() {
+        return null;
+    }
+
     /**
      * Get the provider interface with the given type for this peer.
      *
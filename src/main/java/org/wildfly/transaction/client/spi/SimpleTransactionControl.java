@@ -18,6 +18,9 @@
 
 package org.wildfly.transaction.client.spi;
 
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.RollbackException;
@@ -25,6 +28,7 @@ import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 
 import org.wildfly.common.Assert;
+import org.wildfly.transaction.client._private.AsyncCompletion;
 import org.wildfly.transaction.client._private.Log;
 
 /**
@@ -54,6 +58,30 @@ public interface SimpleTransactionControl {
      */
     void rollback() throws SecurityException, SystemException;
 
+    /**
+     * Commit this transaction without blocking the caller.  The returned stage completes exceptionally with the
+     * exception that {@link #commit()} would have thrown if the commit fails.  The default implementation runs
+     * {@link #commit()} on the given executor.
+     *
+     * @param executor the executor to run blocking work on, and to complete the returned stage from (must not be {@code null})
+     * @return the stage which completes once the transaction is committed (not {@code null})
+     */
+    default CompletionStage<Void> commitAsync(Executor executor) {
+        return AsyncCompletion.run(this::commit, executor);
+    }
+
+    /**
+     * Roll back this transaction without blocking the caller.  The returned stage completes exceptionally with the
+     * exception that {@link #rollback()} would have thrown if the rollback fails.  The default implementation runs
+     * {@link #rollback()} on the given executor.
+     *
+     * @param executor the executor to run blocking work on, and to complete the returned stage from (must not be {@code null})
+     * @return the stage which completes once the transaction is rolled back (not {@code null})
+     */
+    default CompletionStage<Void> rollbackAsync(Executor executor) {
+        return AsyncCompletion.run(this::rollback, executor);
+    }
+
     /**
      * Set the transaction to be rollback-only.  The transaction system is generally guaranteed to only call {@link
      * #rollback()}
@@ -50,6 +50,17 @@ public interface SubordinateTransactionControl {
      */
     void rollback() throws XAException;
 
+    /**
+     * Roll back the subordinate without waiting for the outcome.  Any failure of the rollback itself is not reported;
+     * the subordinate is expected to eventually roll back on its own in that case.  The default implementation calls
+     * {@link #rollback()}.
+     *
+     * @throws XAException if the rollback request could not be issued
+     */
+    default void rollbackAsync() throws XAException {
+        rollback();
+    }
+
     /**
      * End work on behalf of a transaction branch, disassociating the subordinate from the transaction branch.  The
      * {@code flags} parameter may equal one of the following:
@@ -80,6 +91,16 @@ public interface SubordinateTransactionControl {
      */
     void end(int flags) throws XAException;
 
+    /**
+     * Hint to the subordinate that the transaction is going to roll back, so that it may stop doing work on behalf
+     * of the transaction and release its resources early.  The outcome is not waited for; the transaction will still
+     * be completed normally later.  The default implementation does nothing.
+     *
+     * @throws XAException if the hint could not be issued
+     */
+    default void setRollbackOnlyAsync() throws XAException {
+    }
+
     /**
      * Perform before-commit operations, including running all transaction synchronizations.  In the event of an error,
      * the following error codes are possible:
@@ -102,6 +123,20 @@ public interface SubordinateTransactionControl {
      */
     void beforeCompletion() throws XAException;
 
+    /**
+     * Perform before-commit operations as with {@link #beforeCompletion()}, additionally reporting whether the
+     * subordinate already knows that it will vote read-only.  If {@code true} is returned, the subordinate has
+     * completed, and no further completion methods should be called for it.  The same error codes as for
+     * {@link #beforeCompletion()} are possible.
+     *
+     * @return {@code true} if the subordinate completed read-only, {@code false} if it must still be prepared
+     * @throws XAException (with one of the {@link #beforeCompletion()} error codes) if an error occurs
+     */
+    default boolean beforeCompletionReadOnly() throws XAException {
+        beforeCompletion();
+        return false;
+    }
+
     /**
      * Prepare the transaction.  If before-commit processing was not yet run, it is run.  In the event of an error,
      * the following error codes are possible:
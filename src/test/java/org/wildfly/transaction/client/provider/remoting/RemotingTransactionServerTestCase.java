@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.transaction.client.provider.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.xa.XAResource;
+
+import org.jboss.remoting3.Connection;
+import org.junit.Test;
+import org.wildfly.transaction.client.LocalTransactionContext;
+import org.wildfly.transaction.client.spi.LocalTransactionProvider;
+
+/**
+ * Tests of the reaping of abandoned remote user transactions.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class RemotingTransactionServerTestCase {
+
+    private final List<TestTransaction> created = new ArrayList<>();
+
+    @Test
+    public void testReapReleasesCompletedTransactions() throws Exception {
+        final RemotingTransactionService service = new RemotingTransactionService(null, new LocalTransactionContext(createProvider()), 0, Runnable::run, 1);
+        final RemotingTransactionServer server = new RemotingTransactionServer(service, createConnection());
+        server.getOrBeginTransaction(1, 0);
+        server.getOrBeginTransaction(2, 0);
+        server.getOrBeginTransaction(3, 0);
+        assertEquals(3, server.getTransactionCount());
+        created.get(1).status = Status.STATUS_ROLLEDBACK;
+        created.get(2).status = Status.STATUS_COMMITTED;
+
+        server.reap();
+
+        assertEquals(1, server.getTransactionCount());
+        assertEquals(2L, server.getReapedTransactionCount());
+        assertNotNull(server.getTransactionIfExists(1));
+        assertNull(server.getTransactionIfExists(2));
+        assertNull(server.getTransactionIfExists(3));
+        // a late commit of the rolled back transaction must still be answered with a rollback
+        assertFalse(server.wasReaped(1));
+        assertTrue(server.wasReaped(2));
+        assertFalse(server.wasReaped(3));
+    }
+
+    private LocalTransactionProvider createProvider() {
+        return (LocalTransactionProvider) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LocalTransactionProvider.class }, (proxy, method, args) -> {
+            if (method.getName().equals("createNewTransaction")) {
+                final TestTransaction transaction = new TestTransaction();
+                created.add(transaction);
+                return transaction;
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(RemotingTransactionServerTestCase.class.getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> defaultValue(method.getReturnType()));
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        } else if (type == long.class) {
+            return Long.valueOf(0);
+        } else if (type == String.class) {
+            return "";
+        } else {
+            return null;
+        }
+    }
+
+    static final class TestTransaction implements Transaction {
+        volatile int status = Status.STATUS_ACTIVE;
+
+        public void commit() {
+            status = Status.STATUS_COMMITTED;
+        }
+
+        public boolean delistResource(final XAResource xaRes, final int flag) {
+            return false;
+        }
+
+        public boolean enlistResource(final XAResource xaRes) {
+            return false;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public void registerSynchronization(final Synchronization sync) {
+        }
+
+        public void rollback() {
+            status = Status.STATUS_ROLLEDBACK;
+        }
+
+        public void setRollbackOnly() {
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+    }
+}